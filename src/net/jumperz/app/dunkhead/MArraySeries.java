@@ -0,0 +1,52 @@
+package net.jumperz.app.dunkhead;
+
+/*
+ * MSeries over arrays that are already aggregated and sorted by time point
+ */
+public class MArraySeries
+implements MSeries
+{
+private final long[] times;
+private final long[] counts;
+private final double[] values;
+private final int size;
+private int index = -1;
+//--------------------------------------------------------------------------------
+public MArraySeries( long[] times, long[] counts, double[] values, int size )
+{
+this.times = times;
+this.counts = counts;
+this.values = values;
+this.size = size;
+}
+//--------------------------------------------------------------------------------
+public boolean next()
+{
+if( index + 1 >= size )
+	{
+	return false;
+	}
+++index;
+return true;
+}
+//--------------------------------------------------------------------------------
+public long getTime()
+{
+return times[ index ];
+}
+//--------------------------------------------------------------------------------
+public long getCount()
+{
+return counts[ index ];
+}
+//--------------------------------------------------------------------------------
+public double getValue()
+{
+return values[ index ];
+}
+//--------------------------------------------------------------------------------
+public void close()
+{
+}
+//--------------------------------------------------------------------------------
+}
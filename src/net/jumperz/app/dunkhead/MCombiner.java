@@ -28,18 +28,22 @@ import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
 import java.util.*;
-import java.sql.*;
 //import net.jumperz.sql.*;
 
 public class MCombiner
 extends MapReduceBase implements
-Reducer<Text, LongLongDoubleWritable, Text, LongLongDoubleWritable>, MConstants
+Reducer<MTimeKey, LongLongDoubleWritable, MTimeKey, LongLongDoubleWritable>, MConstants
 {
 
 private static final Log LOG = LogFactory.getLog( MCombiner.class );
 
 private String confJsonStr;
 private Map confMap;
+private MKeyCodec codec;
+private final VLongLongDoubleWritable outputValue = new VLongLongDoubleWritable();
+private final MTimeKey outputKey = new MTimeKey();
+private MSeriesAggregator aggregator;
+private MDatabaseStore store;
 
 	//rrd
 private long step = DEFAULT_STEP;
@@ -56,6 +60,7 @@ if( confJsonStr == null )
 LOG.debug( confJsonStr );
 confMap = JSON.decode( confJsonStr );
 //LOG.debug( JSON.encode( confMap, true ) );
+codec = new MKeyCodec( new MExtractionPlan( confMap ) );
 
 try
 	{
@@ -76,24 +81,67 @@ catch( Exception e )
 	{
 	LOG.warn( e );
 	}
+
+if( confMap.containsKey( "aggregator" ) && confMap.get( "aggregator" ).equals( "h2" ) )
+	{
+	LOG.info( "combiner uses H2" );
+	final boolean inmemory = confMap.containsKey( "combiner.inmemory" ) && confMap.get( "combiner.inmemory" ).equals( Boolean.TRUE );
+	store = new MDatabaseStore( inmemory, step );
+	}
+else
+	{
+	int aggregateSize = DEFAULT_COMBINER_AGGREGATE_SIZE;
+	if( confMap.containsKey( "combiner.aggregate.size" ) )
+		{
+		aggregateSize = Integer.parseInt( confMap.get( "combiner.aggregate.size" ) + "" );
+		}
+	aggregator = new MSeriesAggregator( TYPE_ID_UNKNOWN, step, aggregateSize );
+	}
 }
 //--------------------------------------------------------------------------------
-public void reduce( Text key, Iterator<LongLongDoubleWritable> values, OutputCollector<Text, LongLongDoubleWritable> outputCollector, Reporter reporter )
+public void reduce( MTimeKey key, Iterator<LongLongDoubleWritable> values, OutputCollector<MTimeKey, LongLongDoubleWritable> outputCollector, Reporter reporter )
 throws IOException
 {
 //LOG.info( key.toString() );
-Connection conn = null;
+final int type = codec.getType( key.getName() );
+if( aggregator == null )
+	{
+	reduceWithDatabase( key, type, values, outputCollector, reporter );
+	return;
+	}
+if( type == TYPE_ID_UNKNOWN )
+	{
+	return;
+	}
+
+	//same partial aggregates as the "group by t" queries below, in time point order
+aggregator.reset( type );
 try
 	{
-	if( confMap.containsKey( "combiner.inmemory" ) &&  confMap.get( "combiner.inmemory" ).equals( Boolean.TRUE ) )
-		{
-		conn = Util.putValuesToDatabase( values, reporter, true, step );
-		}
-	else
+	aggregator.addAll( values, reporter );
+	final MSeries series = aggregator.getSeries();
+	while( series.next() )
 		{
-		conn = Util.putValuesToDatabase( values, reporter, false, step );	
+		outputKey.set( key.getName(), series.getTime() );
+		outputValue.set( series.getTime(), series.getCount(), series.getValue() );
+		outputCollector.collect( outputKey, outputValue );
 		}
 	}
+finally
+	{
+	aggregator.close();
+	}
+}
+//--------------------------------------------------------------------------------
+private void reduceWithDatabase( MTimeKey key, int type, Iterator<LongLongDoubleWritable> values, OutputCollector<MTimeKey, LongLongDoubleWritable> outputCollector, Reporter reporter )
+throws IOException
+{
+MSeries series = null;
+try
+	{
+	store.load( values, reporter );
+	series = new MDatabaseSeries( store, type );
+	}
 catch( Exception e )
 	{
 	LOG.warn( e );
@@ -102,63 +150,25 @@ catch( Exception e )
 
 try
 	{
-	String queryString = "";
-	if( key.toString().endsWith( TYPE_COUNT ) )
+	while( series.next() )
 		{
-		queryString = "select sum( count ), sum( count),  t from data group by t order by t asc;";
-		}
-	else if( key.toString().endsWith( TYPE_AVERAGE ) )
-		{
-		queryString = "select sum( count * value ) / sum( count ), sum( count), t from data group by t order by t asc;";
-		}
-	else if( key.toString().endsWith( TYPE_MIN ) )
-		{
-		queryString = "select min( value ), sum( count ), t from data group by t order by t asc";
-		}
-	else if( key.toString().endsWith( TYPE_MAX ) )
-		{
-		queryString = "select max( value ), sum( count ), t from data group by t order by t asc";
-		}
-	
-	PreparedStatement ps = conn.prepareStatement( queryString  );
-	ResultSet rs = ps.executeQuery();
-	while( rs.next() )
-		{
-		final double updateValue = rs.getDouble( 1 );
-		final long count = rs.getLong( 2 );
-		final long tp = rs.getLong( 3 );
-		try
-			{
-			//update( db, tp, updateValue );
-			outputCollector.collect( key, new LongLongDoubleWritable( tp, count, updateValue ) );
-			}
-		catch( Exception e )
-			{
-			e.printStackTrace();
-			LOG.warn( e );
-			}
+		outputKey.set( key.getName(), series.getTime() );
+		outputValue.set( series.getTime(), series.getCount(), series.getValue() );
+		outputCollector.collect( outputKey, outputValue );
 		}
 	}
-catch( SQLException e )
+finally
 	{
-	e.printStackTrace( System.out );
-	LOG.warn( e );
-	return;
+	series.close();
 	}
-finally
+}
+//--------------------------------------------------------------------------------
+public void close()
+throws IOException
+{
+if( store != null )
 	{
-	if( conn != null )
-		{
-		try
-			{
-			conn.prepareStatement( "DROP ALL OBJECTS DELETE FILES;" ).executeUpdate();
-			conn.close();
-			}
-		catch( Exception e )
-			{
-			LOG.info( e );
-			}
-		}
+	store.close();
 	}
 }
 //--------------------------------------------------------------------------------
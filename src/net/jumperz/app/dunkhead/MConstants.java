@@ -7,10 +7,20 @@ public static final String TYPE_AVERAGE = "average";
 public static final String TYPE_MIN = "min";
 public static final String TYPE_MAX = "max";
 
+public static final int TYPE_ID_UNKNOWN = 0;
+public static final int TYPE_ID_COUNT = 1;
+public static final int TYPE_ID_AVERAGE = 2;
+public static final int TYPE_ID_MIN = 3;
+public static final int TYPE_ID_MAX = 4;
+
 public static final long DEFAULT_STEP = 300L;
 public static final long DEFAULT_HEARTBEAT = 600L;
 
+public static final int DEFAULT_MAP_AGGREGATE_SIZE = 100000;
+public static final int DEFAULT_COMBINER_AGGREGATE_SIZE = 10000;
+
 public static final String DF_UNIX_SECOND = "unixtime_second";
 public static final String DF_UNIX_MILLI = "unixtime_millisecond";
+public static final String DF_ISO8601 = "iso8601";
 
 }
\ No newline at end of file
@@ -0,0 +1,124 @@
+package net.jumperz.app.dunkhead;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+
+/*
+ * Unpacks the containers written by MContainerRecordWriter into one file per graph.
+ * The containers are plain zip files, so unzip works as well.
+ *
+ * Graphs written as separate files are copied as they are,
+ * so that the destination holds every graph of the job output.
+ * Hot key segments, stored RRDs, time ranges and Hadoop files such as _SUCCESS are skipped.
+ */
+public class MContainerExtractor
+{
+private static final Log LOG = LogFactory.getLog( MContainerExtractor.class );
+//--------------------------------------------------------------------------------
+public static void main( String[] args )
+throws Exception
+{
+if( args.length < 2 )
+	{
+	LOG.warn( "Usage: net.jumperz.app.dunkhead.MContainerExtractor job-output-path destination-path" );
+	return;
+	}
+
+final JobConf conf = new JobConf( MContainerExtractor.class );
+final FileSystem inFs = FileSystem.get( new URI( args[ 0 ] ), conf );
+final FileSystem outFs = FileSystem.get( new URI( args[ 1 ] ), conf );
+final Path outDir = new Path( args[ 1 ] );
+outFs.mkdirs( outDir );
+
+final FileStatus[] statuses = inFs.listStatus( new Path( args[ 0 ] ) );
+int count = 0;
+for( int i = 0; i < statuses.length; ++i )
+	{
+	final Path path = statuses[ i ].getPath();
+	final String name = path.getName();
+	if( statuses[ i ].isDir()
+	 || name.startsWith( "_" )
+	 || name.startsWith( "." )
+	 || MContainerRecordWriter.isSideFile( name )
+	 || name.endsWith( MTimeIndex.RANGE_SUFFIX )
+	  )
+		{
+		continue;
+		}
+	if( name.endsWith( MFileOutputFormat.CONTAINER_SUFFIX ) )
+		{
+		count += extract( inFs, path, outFs, outDir );
+		}
+	else
+		{
+		copy( inFs, path, outFs, new Path( outDir, name ) );
+		++count;
+		}
+	}
+LOG.info( count + " files extracted to " + outDir );
+}
+//--------------------------------------------------------------------------------
+public static int extract( FileSystem inFs, Path container, FileSystem outFs, Path outDir )
+throws IOException
+{
+int count = 0;
+final ZipInputStream in = new ZipInputStream( inFs.open( container ) );
+try
+	{
+	ZipEntry entry;
+	while( ( entry = in.getNextEntry() ) != null )
+		{
+		final OutputStream out = outFs.create( new Path( outDir, entry.getName() ) );
+		try
+			{
+			IOUtils.copy( in, out );
+			}
+		finally
+			{
+			out.close();
+			}
+		++count;
+		}
+	}
+finally
+	{
+	in.close();
+	}
+return count;
+}
+//--------------------------------------------------------------------------------
+private static void copy( FileSystem inFs, Path src, FileSystem outFs, Path dst )
+throws IOException
+{
+final InputStream in = inFs.open( src );
+try
+	{
+	final OutputStream out = outFs.create( dst );
+	try
+		{
+		IOUtils.copy( in, out );
+		}
+	finally
+		{
+		out.close();
+		}
+	}
+finally
+	{
+	in.close();
+	}
+}
+//--------------------------------------------------------------------------------
+}
@@ -0,0 +1,79 @@
+package net.jumperz.app.dunkhead;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.Progressable;
+
+/*
+ * Writes all graphs of a task into one zip file instead of one file per key.
+ * The central directory of the zip is the index, see MContainerExtractor.
+ * Images are stored without compression since GIF is already compressed.
+ *
+ * Hot key segments ( MSegmentMerger ) and stored RRDs ( MStateStore ) are still written as separate files.
+ */
+public class MContainerRecordWriter implements RecordWriter<Text, MImage>
+{
+private static final Log LOG = LogFactory.getLog( MContainerRecordWriter.class );
+
+private final ZipOutputStream zipOut;
+private final OutputStream entryOut;
+private final RecordWriter<Text, MImage> segmentWriter;
+private final Progressable progress;
+private int count;
+//--------------------------------------------------------------------------------
+public MContainerRecordWriter( JobConf jobConf, OutputStream out, Progressable progress )
+{
+zipOut = new ZipOutputStream( out );
+zipOut.setLevel( Deflater.NO_COMPRESSION );
+	//the GIF encoder writes byte by byte
+entryOut = new BufferedOutputStream( zipOut );
+segmentWriter = new MRecordWriter( jobConf, progress );
+this.progress = progress;
+}
+//--------------------------------------------------------------------------------
+public void close( Reporter reporter )
+throws IOException
+{
+zipOut.close();
+LOG.info( count + " entries written" );
+}
+//--------------------------------------------------------------------------------
+public static boolean isSideFile( String name )
+{
+return name.endsWith( MSegmentMerger.SEGMENT_SUFFIX )
+    || name.endsWith( MStateStore.STATE_SUFFIX );
+}
+//--------------------------------------------------------------------------------
+public void write( Text key, MImage value )
+throws IOException
+{
+final String name = key.toString();
+if( isSideFile( name ) )
+	{
+	segmentWriter.write( key, value );
+	return;
+	}
+
+zipOut.putNextEntry( new ZipEntry( name ) );
+value.writeTo( entryOut );
+entryOut.flush();
+zipOut.closeEntry();
+++count;
+if( progress != null )
+	{
+	progress.progress();
+	}
+}
+//--------------------------------------------------------------------------------
+}
@@ -0,0 +1,86 @@
+package net.jumperz.app.dunkhead;
+
+import java.io.IOException;
+import java.sql.*;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/*
+ * MSeries over the values loaded into an MDatabaseStore
+ */
+public class MDatabaseSeries
+implements MSeries, MConstants
+{
+private static final Log LOG = LogFactory.getLog( MDatabaseSeries.class );
+
+private final ResultSet rs;
+//--------------------------------------------------------------------------------
+public MDatabaseSeries( MDatabaseStore store, int type )
+throws SQLException
+{
+rs = store.query( type );
+}
+//--------------------------------------------------------------------------------
+public boolean next()
+throws IOException
+{
+try
+	{
+	return rs.next();
+	}
+catch( SQLException e )
+	{
+	throw new IOException( e );
+	}
+}
+//--------------------------------------------------------------------------------
+public double getValue()
+{
+try
+	{
+	return rs.getDouble( 1 );
+	}
+catch( SQLException e )
+	{
+	throw new IllegalStateException( e );
+	}
+}
+//--------------------------------------------------------------------------------
+public long getCount()
+{
+try
+	{
+	return rs.getLong( 2 );
+	}
+catch( SQLException e )
+	{
+	throw new IllegalStateException( e );
+	}
+}
+//--------------------------------------------------------------------------------
+public long getTime()
+{
+try
+	{
+	return rs.getLong( 3 );
+	}
+catch( SQLException e )
+	{
+	throw new IllegalStateException( e );
+	}
+}
+//--------------------------------------------------------------------------------
+public void close()
+{
+try
+	{
+	rs.close();
+	}
+catch( Exception e )
+	{
+	LOG.info( e );
+	}
+}
+//--------------------------------------------------------------------------------
+}
@@ -0,0 +1,139 @@
+package net.jumperz.app.dunkhead;
+
+import java.io.File;
+import java.sql.*;
+import java.util.*;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.mapred.Reporter;
+
+/*
+ * One H2 database per task for the "aggregator" : "h2" path.
+ * The connection, the table and the prepared statements are created once and the table is
+ * truncated before each key. There is no index : the "group by t" queries sort after the load.
+ */
+public class MDatabaseStore
+implements MConstants
+{
+private static final Log LOG = LogFactory.getLog( MDatabaseStore.class );
+
+private final boolean inmemory;
+private final long step;
+private Connection conn;
+private PreparedStatement insertStatement;
+private PreparedStatement truncateStatement;
+private final Map<Integer, PreparedStatement> queryMap = new HashMap<Integer, PreparedStatement>();
+//--------------------------------------------------------------------------------
+public MDatabaseStore( boolean inmemory, long step )
+{
+this.inmemory = inmemory;
+this.step = step;
+}
+//--------------------------------------------------------------------------------
+private void open()
+throws Exception
+{
+Class.forName( "org.h2.Driver" );
+if( inmemory )
+	{
+	conn = DriverManager.getConnection( "jdbc:h2:mem:" );
+	}
+else
+	{
+	final File baseDir = new File( System.getProperty( "java.io.tmpdir" ) );
+	conn = DriverManager.getConnection(
+		"jdbc:h2:" + baseDir.getAbsolutePath() + "/" + System.currentTimeMillis() + "_" + ( new Random() ).nextInt( 10000 )
+		+ ";LOG=0;CACHE_SIZE=100000;LOCK_MODE=0;UNDO_LOG=0"
+		, "sa", "sa" );
+	}
+conn.prepareStatement( "create table if not exists data ( t long, count long, value double )" ).executeUpdate();
+insertStatement = conn.prepareStatement( "insert into data values( ?, ?, ? )" );
+truncateStatement = conn.prepareStatement( "truncate table data" );
+}
+//--------------------------------------------------------------------------------
+/*
+ * Replaces the content of the table with values
+ */
+public void load( Iterator<LongLongDoubleWritable> values, Reporter reporter )
+throws Exception
+{
+if( conn == null )
+	{
+	open();
+	}
+truncateStatement.executeUpdate();
+
+int index = 0;
+while( values.hasNext() )
+	{
+	LongLongDoubleWritable value = values.next();
+	insertStatement.setLong( 1, Util.getTimePoint( value.getTime(), step ) );
+	insertStatement.setLong( 2, value.getCount() );
+	insertStatement.setDouble( 3, value.getValue() );
+	insertStatement.addBatch();
+
+	++index;
+	if( ( index % 10000 ) == 0 )
+		{
+		insertStatement.executeBatch();
+		reporter.progress();
+		LOG.info( index + " record inserted." );
+		}
+	}
+insertStatement.executeBatch();
+}
+//--------------------------------------------------------------------------------
+/*
+ * ( value, count, time point ) per time point of the loaded values, ordered by time point
+ */
+public ResultSet query( int type )
+throws SQLException
+{
+final Integer typeKey = new Integer( type );
+PreparedStatement ps = ( PreparedStatement )queryMap.get( typeKey );
+if( ps == null )
+	{
+	String queryString = "";
+	if( type == TYPE_ID_COUNT )
+		{
+		queryString = "select sum( count ), sum( count ), t from data group by t order by t asc";
+		}
+	else if( type == TYPE_ID_AVERAGE )
+		{
+		queryString = "select sum( count * value ) / sum( count ), sum( count ), t from data group by t order by t asc";
+		}
+	else if( type == TYPE_ID_MIN )
+		{
+		queryString = "select min( value ), sum( count ), t from data group by t order by t asc";
+		}
+	else if( type == TYPE_ID_MAX )
+		{
+		queryString = "select max( value ), sum( count ), t from data group by t order by t asc";
+		}
+	ps = conn.prepareStatement( queryString );
+	queryMap.put( typeKey, ps );
+	}
+return ps.executeQuery();
+}
+//--------------------------------------------------------------------------------
+public void close()
+{
+if( conn == null )
+	{
+	return;
+	}
+try
+	{
+	conn.prepareStatement( "DROP ALL OBJECTS DELETE FILES;" ).executeUpdate();
+	conn.close();
+	}
+catch( Exception e )
+	{
+	LOG.info( e );
+	}
+conn = null;
+queryMap.clear();
+}
+//--------------------------------------------------------------------------------
+}
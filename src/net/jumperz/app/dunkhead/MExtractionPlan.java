@@ -0,0 +1,450 @@
+package net.jumperz.app.dunkhead;
+
+import java.util.*;
+import java.util.regex.*;
+
+import net.jumperz.util.MMultiLiteralMatcher;
+import net.jumperz.util.MRegExLiteral;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/*
+ * Everything MMap needs from the configuration, compiled once in configure().
+ * The Matchers are reused via reset(), so an instance must not be shared between threads.
+ *
+ * match() scans a line once for the leading literals of the datetime regex and of every
+ * field regex, and only runs a regex at the offsets where its literal occurs.
+ * Regexes without a usable leading literal fall back to find().
+ *
+ * A regex is skipped altogether when the line does not contain its required literal
+ * ( see MRegExLiteral.getRequiredLiteral() ).
+ */
+public class MExtractionPlan
+implements MConstants
+{
+private static final Log LOG = LogFactory.getLog( MExtractionPlan.class );
+
+private final String dfStr;
+private final Matcher datetimeMatcher;
+private final String dateRequiredLiteral;
+private final MField[] fields;
+private final int[] keyIds;
+private final int[] nameTypeIds;
+private int dateStart;
+private int dateEnd;
+
+	//single pass matching
+private final MMultiLiteralMatcher literalMatcher;
+private final int[] literalOwners; //literal id -> field index, or fields.length for the datetime
+private final boolean dateHasLiteral;
+private final boolean[] resolved;
+private final boolean[] matched;
+private final MMultiLiteralMatcher.Handler handler = new LiteralHandler();
+private int lineLength;
+private int unresolvedCount;
+private boolean dateFound;
+//--------------------------------------------------------------------------------
+private class LiteralHandler
+implements MMultiLiteralMatcher.Handler
+{
+public boolean found( int id, int start )
+{
+final int owner = literalOwners[ id ];
+if( resolved[ owner ] )
+	{
+	return true;
+	}
+if( owner == fields.length )
+	{
+	datetimeMatcher.region( start, lineLength );
+	if( datetimeMatcher.lookingAt() )
+		{
+		dateFound = setDate();
+		resolved[ owner ] = true;
+		--unresolvedCount;
+		}
+	}
+else if( fields[ owner ].lookingAt( start, lineLength ) )
+	{
+	matched[ owner ] = true;
+	resolved[ owner ] = true;
+	--unresolvedCount;
+	}
+return unresolvedCount > 0;
+}
+}
+//--------------------------------------------------------------------------------
+public MExtractionPlan( Map confMap )
+{
+final Map datetimeMap = ( Map )confMap.get( "datetime" );
+dfStr = datetimeMap.get( "format" ) + "";
+final String datetimeRegex = ( String )datetimeMap.get( "regex" );
+datetimeMatcher = Pattern.compile( datetimeRegex, Pattern.DOTALL ).matcher( "" );
+datetimeMatcher.useTransparentBounds( true );
+datetimeMatcher.useAnchoringBounds( false );
+final String required = MRegExLiteral.getRequiredLiteral( datetimeRegex );
+dateRequiredLiteral = ( required.length() > 0 ) ? required : null;
+
+final List<MField> fieldList = new ArrayList<MField>();
+final List fieldConfList = ( List )confMap.get( "fields" );
+if( fieldConfList != null )
+	{
+	for( int i = 0; i < fieldConfList.size(); ++i )
+		{
+		final Map field = ( Map )fieldConfList.get( i );
+		final String name		= ( String )field.get( "name"  );
+		final String regex	= ( String )field.get( "regex" );
+		final String typeStr	= ( String )field.get( "type"  );
+		final String evalStr	= ( String )field.get( "eval"  ); //may be null
+
+		if( name  == null
+		 || regex == null
+		 || typeStr  == null
+		  )
+			{
+			LOG.warn( "Invalid configuration [ " + field + " ] ignored." );
+			continue;
+			}
+		fieldList.add( new MField( name, regex, typeStr, evalStr ) );
+		}
+	}
+fields = ( MField[] )fieldList.toArray( new MField[ fieldList.size() ] );
+
+	//fields with the same name and type share one key, as the name strings did
+keyIds = new int[ fields.length ];
+final Map<String, Integer> keyIdMap = new HashMap<String, Integer>();
+keyIdMap.put( "L\tAll\t" + TYPE_COUNT, new Integer( MKeyCodec.FIELD_ID_ALL ) );
+for( int i = 0; i < fields.length; ++i )
+	{
+	final String nameAndType = ( isTemplate( fields[ i ] ) ? "T\t" : "L\t" ) + fields[ i ].getName() + "\t" + fields[ i ].getTypeStr();
+	final Integer keyId = ( Integer )keyIdMap.get( nameAndType );
+	if( keyId == null )
+		{
+		keyIds[ i ] = i + 1;
+		keyIdMap.put( nameAndType, new Integer( keyIds[ i ] ) );
+		}
+	else
+		{
+		keyIds[ i ] = keyId.intValue();
+		}
+	}
+
+	//keys whose names different captures may render the same are encoded by name ( see MKeyCodec )
+nameTypeIds = new int[ fields.length + 1 ];
+Arrays.fill( nameTypeIds, -1 );
+for( int k = 0; k <= fields.length; ++k )
+	{
+	if( k > 0 && keyIds[ k - 1 ] != k )
+		{
+		continue;
+		}
+	if( getCaptureCount( k ) > 1 )
+		{
+		setNameKey( k );
+		}
+	for( int m = k + 1; m <= fields.length; ++m )
+		{
+		if( keyIds[ m - 1 ] == m
+		 && getKeyTypeStr( k ).equals( getKeyTypeStr( m ) )
+		 && mayCollide( k, m )
+		  )
+			{
+			setNameKey( k );
+			setNameKey( m );
+			}
+		}
+	}
+
+resolved = new boolean[ fields.length + 1 ];
+matched = new boolean[ fields.length ];
+final List<String> literalList = new ArrayList<String>();
+final List<Integer> ownerList = new ArrayList<Integer>();
+if( !Boolean.FALSE.equals( confMap.get( "mapper.multimatch" ) ) )
+	{
+	for( int i = 0; i < fields.length; ++i )
+		{
+		if( fields[ i ].getLeadingLiteral() != null )
+			{
+			literalList.add( fields[ i ].getLeadingLiteral() );
+			ownerList.add( new Integer( i ) );
+			}
+		}
+	final String dateLiteral = MRegExLiteral.getLeadingLiteral( datetimeRegex );
+	if( MMultiLiteralMatcher.isSupported( dateLiteral ) )
+		{
+		literalList.add( dateLiteral );
+		ownerList.add( new Integer( fields.length ) );
+		}
+	}
+dateHasLiteral = ownerList.contains( new Integer( fields.length ) );
+literalOwners = new int[ ownerList.size() ];
+for( int i = 0; i < literalOwners.length; ++i )
+	{
+	literalOwners[ i ] = ( ( Integer )ownerList.get( i ) ).intValue();
+	}
+if( literalOwners.length > 0 )
+	{
+	literalMatcher = new MMultiLiteralMatcher( ( String[] )literalList.toArray( new String[ literalList.size() ] ) );
+	LOG.info( literalOwners.length + " of " + ( fields.length + 1 ) + " regexes use the single pass matcher" );
+	}
+else
+	{
+	literalMatcher = null;
+	}
+}
+//--------------------------------------------------------------------------------
+/*
+ * Matches the datetime and every field against the line.
+ * Returns false if the datetime is not found, in which case the fields are not evaluated.
+ * See getDateStart() / getDateEnd() / getMatcher()
+ */
+public boolean match( CharSequence line )
+{
+if( !mayContainDate( line ) )
+	{
+	return false;
+	}
+
+lineLength = line.length();
+Arrays.fill( resolved, false );
+Arrays.fill( matched, false );
+dateFound = false;
+datetimeMatcher.reset( line );
+for( int i = 0; i < fields.length; ++i )
+	{
+	fields[ i ].reset( line );
+	}
+
+if( literalMatcher != null )
+	{
+	unresolvedCount = literalOwners.length;
+	for( int i = 0; i < literalOwners.length; ++i )
+		{
+		final int owner = literalOwners[ i ];
+		if( owner < fields.length
+		 && !fields[ owner ].isRequiredLiteralInLeading()
+		 && !fields[ owner ].mayMatch( line )
+		  )
+			{
+			resolved[ owner ] = true;
+			--unresolvedCount;
+			}
+		}
+	if( unresolvedCount > 0 )
+		{
+		literalMatcher.scan( line, handler );
+		}
+	}
+
+if( !dateHasLiteral )
+	{
+	dateFound = datetimeMatcher.find() && setDate();
+	}
+if( !dateFound )
+	{
+	return false;
+	}
+
+for( int i = 0; i < fields.length; ++i )
+	{
+	if( fields[ i ].getLeadingLiteral() == null || literalMatcher == null )
+		{
+		matched[ i ] = fields[ i ].mayMatch( line ) && fields[ i ].find();
+		}
+	}
+return true;
+}
+//--------------------------------------------------------------------------------
+/*
+ * The matcher of the i-th field after match(), or null if the field did not match
+ */
+public Matcher getMatcher( int i )
+{
+if( matched[ i ] )
+	{
+	return fields[ i ].getMatcher();
+	}
+else
+	{
+	return null;
+	}
+}
+//--------------------------------------------------------------------------------
+private static boolean isTemplate( MField field )
+{
+return field.isNameSubstituted() && field.getNameTemplate().hasGroup();
+}
+//--------------------------------------------------------------------------------
+private String getKeyTypeStr( int keyId )
+{
+return ( keyId == MKeyCodec.FIELD_ID_ALL ) ? TYPE_COUNT : fields[ keyId - 1 ].getTypeStr();
+}
+//--------------------------------------------------------------------------------
+/*
+ * null for a name without captures
+ */
+private MNameTemplate getKeyTemplate( int keyId )
+{
+if( keyId == MKeyCodec.FIELD_ID_ALL || !isTemplate( fields[ keyId - 1 ] ) )
+	{
+	return null;
+	}
+return fields[ keyId - 1 ].getNameTemplate();
+}
+//--------------------------------------------------------------------------------
+private int getCaptureCount( int keyId )
+{
+final MNameTemplate template = getKeyTemplate( keyId );
+int count = 0;
+for( int i = 0; template != null && i < template.getSegmentCount(); ++i )
+	{
+	if( template.getGroup( i ) >= 0 )
+		{
+		++count;
+		}
+	}
+return count;
+}
+//--------------------------------------------------------------------------------
+/*
+ * The literal part of the name before the first capture ( prefix ) or after the last capture
+ */
+private String getKeyLiteral( int keyId, boolean prefix )
+{
+final MNameTemplate template = getKeyTemplate( keyId );
+if( template == null )
+	{
+	return ( keyId == MKeyCodec.FIELD_ID_ALL ) ? "All" : fields[ keyId - 1 ].getName();
+	}
+final StringBuilder buf = new StringBuilder();
+final int count = template.getSegmentCount();
+for( int i = 0; i < count; ++i )
+	{
+	final int index = prefix ? i : ( count - 1 - i );
+	if( template.getGroup( index ) >= 0 )
+		{
+		break;
+		}
+	buf.insert( prefix ? buf.length() : 0, template.getLiteral( index ) );
+	}
+return buf.toString();
+}
+//--------------------------------------------------------------------------------
+/*
+ * False only if no captures can render the two names the same
+ */
+private boolean mayCollide( int k, int m )
+{
+final String prefixK = getKeyLiteral( k, true );
+final String prefixM = getKeyLiteral( m, true );
+final String suffixK = getKeyLiteral( k, false );
+final String suffixM = getKeyLiteral( m, false );
+if( getCaptureCount( k ) == 0 && getCaptureCount( m ) == 0 )
+	{
+	return prefixK.equals( prefixM );
+	}
+return ( prefixK.startsWith( prefixM ) || prefixM.startsWith( prefixK ) )
+    && ( suffixK.endsWith( suffixM ) || suffixM.endsWith( suffixK ) );
+}
+//--------------------------------------------------------------------------------
+/*
+ * The type of a key encoded by name is the first key id with the same type string
+ */
+private void setNameKey( int keyId )
+{
+final String typeStr = getKeyTypeStr( keyId );
+for( int k = 0; k <= keyId; ++k )
+	{
+	if( getKeyTypeStr( k ).equals( typeStr ) )
+		{
+		nameTypeIds[ keyId ] = k;
+		return;
+		}
+	}
+}
+//--------------------------------------------------------------------------------
+/*
+ * The field id of MKeyCodec for the i-th field.
+ * Fields with the same name and type get the same id, so their records are merged
+ */
+public int getKeyId( int i )
+{
+return keyIds[ i ];
+}
+//--------------------------------------------------------------------------------
+/*
+ * The key id whose type a key encoded by name carries, or -1 if keyId is encoded by its captures
+ */
+public int getNameTypeId( int keyId )
+{
+return nameTypeIds[ keyId ];
+}
+//--------------------------------------------------------------------------------
+public String getDateFormat()
+{
+return dfStr;
+}
+//--------------------------------------------------------------------------------
+public MField[] getFields()
+{
+return fields;
+}
+//--------------------------------------------------------------------------------
+/*
+ * Locates the datetime part of the line without creating a String.
+ * See getDateStart() / getDateEnd()
+ */
+public boolean findDate( CharSequence line )
+{
+datetimeMatcher.reset( line );
+if( !mayContainDate( line ) || !datetimeMatcher.find() )
+	{
+	return false;
+	}
+return setDate();
+}
+//--------------------------------------------------------------------------------
+private boolean mayContainDate( CharSequence line )
+{
+return dateRequiredLiteral == null
+    || MRegExLiteral.indexOf( line, dateRequiredLiteral, false ) >= 0;
+}
+//--------------------------------------------------------------------------------
+private boolean setDate()
+{
+final int group = ( datetimeMatcher.groupCount() > 0 ) ? 1 : 0;
+final int start = datetimeMatcher.start( group );
+dateStart = start;
+dateEnd = datetimeMatcher.end( group );
+return start >= 0 && dateEnd > start;
+}
+//--------------------------------------------------------------------------------
+public int getDateStart()
+{
+return dateStart;
+}
+//--------------------------------------------------------------------------------
+public int getDateEnd()
+{
+return dateEnd;
+}
+//--------------------------------------------------------------------------------
+public String getDatePart( CharSequence line )
+{
+datetimeMatcher.reset( line );
+if( !mayContainDate( line ) || !datetimeMatcher.find() )
+	{
+	return null;
+	}
+if( datetimeMatcher.groupCount() > 0 )
+	{
+	return datetimeMatcher.group( 1 );
+	}
+else
+	{
+	return datetimeMatcher.group();
+	}
+}
+//--------------------------------------------------------------------------------
+}
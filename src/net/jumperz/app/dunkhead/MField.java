@@ -0,0 +1,201 @@
+package net.jumperz.app.dunkhead;
+
+import java.util.regex.*;
+
+import net.jumperz.util.MEvalDoubleBase;
+import net.jumperz.util.MMultiLiteralMatcher;
+import net.jumperz.util.MRegEx;
+import net.jumperz.util.MRegExLiteral;
+
+/*
+ * One entry of the "fields" configuration, resolved once per task.
+ */
+public class MField
+implements MConstants
+{
+private final String name;
+private final String regex;
+private final String typeStr;
+private final String evalStr;
+private final int type;
+private final Pattern pattern;
+private final Matcher matcher;
+private final MNameTemplate nameTemplate;
+private final String leadingLiteral;
+private final String requiredLiteral;
+private final boolean requiredLiteralInLeading;
+private MEvalDoubleBase evaluator;
+//--------------------------------------------------------------------------------
+public MField( String name, String regex, String typeStr, String evalStr )
+{
+this.name = name;
+this.regex = regex;
+this.typeStr = typeStr;
+this.evalStr = evalStr;
+
+type = getTypeId( typeStr );
+pattern = Pattern.compile( regex, Pattern.CASE_INSENSITIVE | Pattern.DOTALL );
+matcher = pattern.matcher( "" );
+matcher.useTransparentBounds( true );
+matcher.useAnchoringBounds( false );
+nameTemplate = new MNameTemplate( name );
+
+final String literal = MRegExLiteral.getLeadingLiteral( regex );
+leadingLiteral = MMultiLiteralMatcher.isSupported( literal ) ? literal : null;
+
+final String required = MRegExLiteral.getRequiredLiteral( regex );
+requiredLiteral = ( required.length() > 0 ) ? required : null;
+requiredLiteralInLeading = requiredLiteral != null
+                        && leadingLiteral != null
+                        && MRegExLiteral.indexOf( leadingLiteral, requiredLiteral, true ) >= 0;
+}
+//--------------------------------------------------------------------------------
+public static int getTypeId( String typeStr )
+{
+if( typeStr.equalsIgnoreCase( TYPE_COUNT ) )
+	{
+	return TYPE_ID_COUNT;
+	}
+else if( typeStr.equalsIgnoreCase( TYPE_AVERAGE ) )
+	{
+	return TYPE_ID_AVERAGE;
+	}
+else if( typeStr.equalsIgnoreCase( TYPE_MIN ) )
+	{
+	return TYPE_ID_MIN;
+	}
+else if( typeStr.equalsIgnoreCase( TYPE_MAX ) )
+	{
+	return TYPE_ID_MAX;
+	}
+else
+	{
+	return TYPE_ID_UNKNOWN;
+	}
+}
+//--------------------------------------------------------------------------------
+public Matcher match( CharSequence line )
+{
+matcher.reset( line );
+if( mayMatch( line ) && matcher.find() )
+	{
+	return matcher;
+	}
+else
+	{
+	return null;
+	}
+}
+//--------------------------------------------------------------------------------
+/*
+ * False if the line lacks a literal every match must contain, so the regex can be skipped
+ */
+public boolean mayMatch( CharSequence line )
+{
+return requiredLiteral == null
+    || MRegExLiteral.indexOf( line, requiredLiteral, true ) >= 0;
+}
+//--------------------------------------------------------------------------------
+/*
+ * True if finding the leading literal already proves the required literal is present
+ */
+public boolean isRequiredLiteralInLeading()
+{
+return requiredLiteral == null || requiredLiteralInLeading;
+}
+//--------------------------------------------------------------------------------
+public void reset( CharSequence line )
+{
+matcher.reset( line );
+}
+//--------------------------------------------------------------------------------
+/*
+ * Tries a match beginning exactly at start, with the rest of the line visible to
+ * lookarounds. Succeeding at the leftmost candidate gives the same result as find().
+ */
+public boolean lookingAt( int start, int end )
+{
+matcher.region( start, end );
+return matcher.lookingAt();
+}
+//--------------------------------------------------------------------------------
+public boolean find()
+{
+return matcher.find();
+}
+//--------------------------------------------------------------------------------
+public Matcher getMatcher()
+{
+return matcher;
+}
+//--------------------------------------------------------------------------------
+/*
+ * The literal every match begins with, or null
+ */
+public String getLeadingLiteral()
+{
+return leadingLiteral;
+}
+//--------------------------------------------------------------------------------
+/*
+ * The longest literal every match contains, or null
+ */
+public String getRequiredLiteral()
+{
+return requiredLiteral;
+}
+//--------------------------------------------------------------------------------
+public String getName()
+{
+return name;
+}
+//--------------------------------------------------------------------------------
+public String getRegex()
+{
+return regex;
+}
+//--------------------------------------------------------------------------------
+public String getTypeStr()
+{
+return typeStr;
+}
+//--------------------------------------------------------------------------------
+public String getEvalStr()
+{
+return evalStr;
+}
+//--------------------------------------------------------------------------------
+public int getType()
+{
+return type;
+}
+//--------------------------------------------------------------------------------
+public Pattern getPattern()
+{
+return pattern;
+}
+//--------------------------------------------------------------------------------
+public MNameTemplate getNameTemplate()
+{
+return nameTemplate;
+}
+//--------------------------------------------------------------------------------
+public MEvalDoubleBase getEvaluator()
+{
+if( evaluator == null && evalStr != null )
+	{
+	evaluator = MRegEx.getEvaluator( regex, evalStr );
+	}
+return evaluator;
+}
+//--------------------------------------------------------------------------------
+/*
+ * Non-eval average/min/max fields always use the name as is
+ */
+public boolean isNameSubstituted()
+{
+return evalStr != null
+    || !( type == TYPE_ID_AVERAGE || type == TYPE_ID_MIN || type == TYPE_ID_MAX );
+}
+//--------------------------------------------------------------------------------
+}
@@ -1,21 +1,40 @@
 package net.jumperz.app.dunkhead;
 
 import java.io.IOException;
+import java.util.Map;
+
+import net.arnx.jsonic.JSON;
 
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.RecordWriter;
 import org.apache.hadoop.util.Progressable;
 
-public class MFileOutputFormat< K, V >
-extends FileOutputFormat< K, V >
+public class MFileOutputFormat
+extends FileOutputFormat< Text, MImage >
+{
+public static final String CONTAINER_SUFFIX = ".zip";
+//--------------------------------------------------------------------------------
+/*
+ * "output" : "container" packs the graphs of each task into one zip file ( see MContainerRecordWriter )
+ */
+public static boolean isContainer( JobConf jobConf )
 {
+final String confJsonStr = jobConf.get( "confJsonStr" );
+if( confJsonStr == null )
+	{
+	return false;
+	}
+final Map confMap = JSON.decode( confJsonStr );
+return "container".equals( confMap.get( "output" ) );
+}
 //--------------------------------------------------------------------------------
 @Override
-public RecordWriter<K, V> getRecordWriter( FileSystem ignored, JobConf jobConf, String partName, Progressable progress )
+public RecordWriter<Text, MImage> getRecordWriter( FileSystem ignored, JobConf jobConf, String partName, Progressable progress )
 throws IOException
 {
 /*
@@ -24,7 +43,14 @@ FileSystem fs = file.getFileSystem( jobConf );
 FSDataOutputStream fileOut = fs.create( file, progress );
 */
 
-return new MRecordWriter<K, V>( jobConf, progress );
+if( isContainer( jobConf ) )
+	{
+	final Path file = FileOutputFormat.getTaskOutputPath( jobConf, partName + CONTAINER_SUFFIX );
+	final FileSystem fs = file.getFileSystem( jobConf );
+	return new MContainerRecordWriter( jobConf, fs.create( file, progress ), progress );
+	}
+
+return new MRecordWriter( jobConf, progress );
 }
 //--------------------------------------------------------------------------------
 }
\ No newline at end of file
@@ -0,0 +1,81 @@
+package net.jumperz.app.dunkhead;
+
+import java.util.*;
+
+import net.arnx.jsonic.JSON;
+
+import org.apache.hadoop.mapred.JobConf;
+
+/*
+ * Metric keys whose time points are spread over several reducers by time range.
+ *
+ * "partitioner" : { "hotkeys" : [ "All_count", ... ], "range" : seconds }
+ * Main may add keys found by sampling in the "dunkhead.hotkeys" job property.
+ * The range is rounded up to a multiple of the rrd step so that a time point never straddles two ranges.
+ */
+public class MHotKeys
+implements MConstants
+{
+public static final String JOB_PROPERTY = "dunkhead.hotkeys";
+public static final long DEFAULT_RANGE_STEPS = 288;
+
+private final Set<String> nameSet = new HashSet<String>();
+private final long rangeMillis;
+//--------------------------------------------------------------------------------
+public MHotKeys( Map confMap, JobConf job, long step )
+{
+long range = step * DEFAULT_RANGE_STEPS;
+final Map partitionerMap = ( Map )confMap.get( "partitioner" );
+if( partitionerMap != null )
+	{
+	final List hotKeyList = ( List )partitionerMap.get( "hotkeys" );
+	if( hotKeyList != null )
+		{
+		for( int i = 0; i < hotKeyList.size(); ++i )
+			{
+			nameSet.add( hotKeyList.get( i ) + "" );
+			}
+		}
+	if( partitionerMap.containsKey( "range" ) )
+		{
+		range = Long.parseLong( partitionerMap.get( "range" ) + "" );
+		}
+	}
+if( job != null && job.get( JOB_PROPERTY ) != null )
+	{
+	final List hotKeyList = ( List )JSON.decode( job.get( JOB_PROPERTY ) );
+	for( int i = 0; i < hotKeyList.size(); ++i )
+		{
+		nameSet.add( hotKeyList.get( i ) + "" );
+		}
+	}
+
+if( range < step )
+	{
+	range = step;
+	}
+range = ( ( range + step - 1 ) / step ) * step;
+rangeMillis = range * 1000;
+}
+//--------------------------------------------------------------------------------
+public boolean isEmpty()
+{
+return nameSet.isEmpty();
+}
+//--------------------------------------------------------------------------------
+public boolean isHot( String name )
+{
+return nameSet.contains( name );
+}
+//--------------------------------------------------------------------------------
+public long getRangeMillis()
+{
+return rangeMillis;
+}
+//--------------------------------------------------------------------------------
+public long getRange( long timePoint )
+{
+return timePoint / rangeMillis;
+}
+//--------------------------------------------------------------------------------
+}
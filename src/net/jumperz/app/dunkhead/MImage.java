@@ -0,0 +1,57 @@
+package net.jumperz.app.dunkhead;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import net.jumperz.ext.org.jrobin.core.RrdException;
+import net.jumperz.ext.org.jrobin.graph.RrdGraph;
+
+/*
+ * Value of the reduce output : a graph, or the bytes of a hot key segment or a stored RRD.
+ *
+ * writeTo() encodes a graph straight into the stream, so the image is never held in a byte array.
+ * A graph must be written before its source is released, which holds since
+ * OutputCollector.collect() of the old API writes the record immediately
+ */
+public final class MImage
+{
+private final RrdGraph graph;
+private final byte[] bytes;
+private final int length;
+//--------------------------------------------------------------------------------
+public MImage( RrdGraph graph )
+{
+this.graph = graph;
+this.bytes = null;
+this.length = 0;
+}
+//--------------------------------------------------------------------------------
+/*
+ * The first length bytes of bytes, which are not copied
+ */
+public MImage( byte[] bytes, int length )
+{
+this.graph = null;
+this.bytes = bytes;
+this.length = length;
+}
+//--------------------------------------------------------------------------------
+public void writeTo( OutputStream out )
+throws IOException
+{
+if( graph == null )
+	{
+	out.write( bytes, 0, length );
+	return;
+	}
+try
+	{
+	graph.writeGifToStream( out );
+	}
+catch( RrdException e )
+	{
+	throw new IOException( e );
+	}
+}
+//--------------------------------------------------------------------------------
+}
@@ -0,0 +1,336 @@
+package net.jumperz.app.dunkhead;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/*
+ * Lists the files under the input path recursively, with the directories
+ * listed by a bounded pool of threads.
+ *
+ * "listing" : { "threads" : 16, "manifest" : "hdfs:///user/dunkhead/listing", "trust" : 86400 }
+ *
+ * With a manifest, the children of every directory are cached between runs and reused
+ * while the modification time of the directory is unchanged ( it changes when a child is
+ * added, removed or renamed ). A directory that had not been modified for "trust" seconds
+ * when it was listed is assumed not to change any more and is not even checked,
+ * which saves the walk over old partitions of a log tree altogether.
+ */
+public class MInputLister
+{
+private static final Log LOG = LogFactory.getLog( MInputLister.class );
+
+public static final int DEFAULT_THREADS = 16;
+
+private final FileSystem fs;
+private final int threads;
+private final Path manifestPath; //may be null
+private final long trustMillis; //-1 : never trust
+
+private final Map<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+private final Map<String, Entry> listing = new ConcurrentHashMap<String, Entry>();
+//--------------------------------------------------------------------------------
+private static class Entry
+{
+final long modificationTime;
+final long listedAt;
+final List<String> fileList = new ArrayList<String>();
+final List<String> dirList = new ArrayList<String>();
+
+Entry( long modificationTime, long listedAt )
+{
+this.modificationTime = modificationTime;
+this.listedAt = listedAt;
+}
+}
+//--------------------------------------------------------------------------------
+private static class Result
+{
+final List<Path> pathList = new ArrayList<Path>();
+final List<Path> dirList = new ArrayList<Path>();
+final List<Long> dirTimeList = new ArrayList<Long>(); //-1 if unknown
+}
+//--------------------------------------------------------------------------------
+public MInputLister( FileSystem fs, Map confMap )
+{
+this.fs = fs;
+final Map listingMap = ( Map )confMap.get( "listing" );
+int _threads = DEFAULT_THREADS;
+Path _manifestPath = null;
+long _trustMillis = -1;
+if( listingMap != null )
+	{
+	if( listingMap.containsKey( "threads" ) )
+		{
+		_threads = Math.max( 1, Integer.parseInt( listingMap.get( "threads" ) + "" ) );
+		}
+	if( listingMap.containsKey( "manifest" ) )
+		{
+		_manifestPath = new Path( listingMap.get( "manifest" ) + "" );
+		}
+	if( listingMap.containsKey( "trust" ) )
+		{
+		_trustMillis = Long.parseLong( listingMap.get( "trust" ) + "" ) * 1000;
+		}
+	}
+threads = _threads;
+manifestPath = _manifestPath;
+trustMillis = _trustMillis;
+}
+//--------------------------------------------------------------------------------
+public Path[] list( String basePath )
+throws IOException
+{
+final long startTime = System.currentTimeMillis();
+if( manifestPath != null )
+	{
+	readManifest();
+	}
+
+final Path base = fs.makeQualified( new Path( fs.getUri() + basePath ) );
+final FileStatus baseStatus = fs.getFileStatus( base );
+if( !baseStatus.isDir() )
+	{
+	return new Path[]{ base };
+	}
+
+final List<Path> pathList = new ArrayList<Path>();
+final ExecutorService executor = Executors.newFixedThreadPool( threads );
+try
+	{
+	final CompletionService<Result> completionService = new ExecutorCompletionService<Result>( executor );
+	int pending = 0;
+
+		//the base itself is not added even when it is empty
+	final Result baseResult = listDirectory( base, baseStatus.getModificationTime() );
+	for( int i = 0; i < baseResult.dirList.size(); ++i )
+		{
+		submit( completionService, baseResult.dirList.get( i ), baseResult.dirTimeList.get( i ).longValue() );
+		++pending;
+		}
+	pathList.addAll( baseResult.pathList );
+
+	while( pending > 0 )
+		{
+		final Result result;
+		try
+			{
+			result = completionService.take().get();
+			}
+		catch( InterruptedException e )
+			{
+			throw new IOException( e );
+			}
+		catch( ExecutionException e )
+			{
+			throw new IOException( e.getCause() );
+			}
+		--pending;
+		pathList.addAll( result.pathList );
+		for( int i = 0; i < result.dirList.size(); ++i )
+			{
+			submit( completionService, result.dirList.get( i ), result.dirTimeList.get( i ).longValue() );
+			++pending;
+			}
+		}
+	}
+finally
+	{
+	executor.shutdownNow();
+	}
+
+if( manifestPath != null )
+	{
+	writeManifest();
+	}
+
+Collections.sort( pathList );
+LOG.info( pathList.size() + " input files in " + listing.size() + " directories listed in " + ( System.currentTimeMillis() - startTime ) + " ms" );
+return ( Path[] )pathList.toArray( new Path[ pathList.size() ] );
+}
+//--------------------------------------------------------------------------------
+private void submit( CompletionService<Result> completionService, final Path dir, final long modificationTime )
+{
+completionService.submit( new Callable<Result>()
+	{
+	public Result call()
+	throws IOException
+	{
+	final Result result = listDirectory( dir, modificationTime );
+		//an empty directory is an input path of its own
+	if( result.pathList.isEmpty() && result.dirList.isEmpty() )
+		{
+		result.pathList.add( dir );
+		}
+	return result;
+	}
+	} );
+}
+//--------------------------------------------------------------------------------
+/*
+ * modificationTime is -1 when the status of dir came from the manifest and may be stale
+ */
+private Result listDirectory( Path dir, long modificationTime )
+throws IOException
+{
+final String key = dir.toString();
+Entry entry = cache.get( key );
+if( entry != null )
+	{
+	if( modificationTime == -1 )
+		{
+		if( trustMillis >= 0 && entry.listedAt - entry.modificationTime > trustMillis )
+			{
+			return toResult( dir, entry );
+			}
+		modificationTime = fs.getFileStatus( dir ).getModificationTime();
+		}
+	if( modificationTime == entry.modificationTime )
+		{
+		return toResult( dir, entry );
+		}
+	}
+
+	//the time is read before the children, so a change in between only causes another listing next time
+if( modificationTime == -1 )
+	{
+	modificationTime = fs.getFileStatus( dir ).getModificationTime();
+	}
+entry = new Entry( modificationTime, System.currentTimeMillis() );
+final Result result = new Result();
+final FileStatus[] statuses = fs.listStatus( dir );
+for( int i = 0; statuses != null && i < statuses.length; ++i )
+	{
+	final Path path = statuses[ i ].getPath();
+	if( statuses[ i ].isDir() )
+		{
+		entry.dirList.add( path.getName() );
+		result.dirList.add( path );
+		result.dirTimeList.add( new Long( statuses[ i ].getModificationTime() ) );
+		}
+	else
+		{
+		entry.fileList.add( path.getName() );
+		result.pathList.add( path );
+		}
+	}
+listing.put( key, entry );
+return result;
+}
+//--------------------------------------------------------------------------------
+private Result toResult( Path dir, Entry entry )
+{
+final Result result = new Result();
+for( int i = 0; i < entry.fileList.size(); ++i )
+	{
+	result.pathList.add( new Path( dir, entry.fileList.get( i ) ) );
+	}
+for( int i = 0; i < entry.dirList.size(); ++i )
+	{
+	result.dirList.add( new Path( dir, entry.dirList.get( i ) ) );
+	result.dirTimeList.add( new Long( -1 ) );
+	}
+listing.put( dir.toString(), entry );
+return result;
+}
+//--------------------------------------------------------------------------------
+/*
+ * A manifest path without a scheme is on the input file system
+ */
+private FileSystem getManifestFileSystem()
+throws IOException
+{
+if( manifestPath.toUri().getScheme() == null )
+	{
+	return fs;
+	}
+return manifestPath.getFileSystem( fs.getConf() );
+}
+//--------------------------------------------------------------------------------
+/*
+ * D <tab> directory <tab> modification time <tab> listed at
+ * F <tab> file name
+ * S <tab> sub directory name
+ */
+private void readManifest()
+throws IOException
+{
+final FileSystem manifestFs = getManifestFileSystem();
+if( !manifestFs.exists( manifestPath ) )
+	{
+	return;
+	}
+final BufferedReader reader = new BufferedReader( new InputStreamReader( manifestFs.open( manifestPath ), "UTF-8" ) );
+try
+	{
+	Entry entry = null;
+	String line;
+	while( ( line = reader.readLine() ) != null )
+		{
+		final String[] array = line.split( "\t" );
+		if( array[ 0 ].equals( "D" ) )
+			{
+			entry = new Entry( Long.parseLong( array[ 2 ] ), Long.parseLong( array[ 3 ] ) );
+			cache.put( array[ 1 ], entry );
+			}
+		else if( array[ 0 ].equals( "F" ) )
+			{
+			entry.fileList.add( array[ 1 ] );
+			}
+		else if( array[ 0 ].equals( "S" ) )
+			{
+			entry.dirList.add( array[ 1 ] );
+			}
+		}
+	}
+finally
+	{
+	reader.close();
+	}
+LOG.info( cache.size() + " directories in " + manifestPath );
+}
+//--------------------------------------------------------------------------------
+private void writeManifest()
+throws IOException
+{
+final FileSystem manifestFs = getManifestFileSystem();
+final Path tmpPath = new Path( manifestPath.getParent(), manifestPath.getName() + ".tmp" );
+final OutputStream out = manifestFs.create( tmpPath, true );
+try
+	{
+	final Iterator<Map.Entry<String, Entry>> p = listing.entrySet().iterator();
+	while( p.hasNext() )
+		{
+		final Map.Entry<String, Entry> mapEntry = p.next();
+		final Entry entry = mapEntry.getValue();
+		final StringBuilder buf = new StringBuilder();
+		buf.append( "D\t" ).append( mapEntry.getKey() ).append( '\t' ).append( entry.modificationTime ).append( '\t' ).append( entry.listedAt ).append( '\n' );
+		for( int i = 0; i < entry.fileList.size(); ++i )
+			{
+			buf.append( "F\t" ).append( entry.fileList.get( i ) ).append( '\n' );
+			}
+		for( int i = 0; i < entry.dirList.size(); ++i )
+			{
+			buf.append( "S\t" ).append( entry.dirList.get( i ) ).append( '\n' );
+			}
+		out.write( buf.toString().getBytes( "UTF-8" ) );
+		}
+	}
+finally
+	{
+	out.close();
+	}
+manifestFs.delete( manifestPath, false );
+manifestFs.rename( tmpPath, manifestPath );
+}
+//--------------------------------------------------------------------------------
+}
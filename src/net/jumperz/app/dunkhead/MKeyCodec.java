@@ -0,0 +1,251 @@
+package net.jumperz.app.dunkhead;
+
+import java.io.*;
+import java.util.regex.*;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/*
+ * Binary form of a metric key such as "Status-Code-200_count".
+ *
+ * vint field id ( MExtractionPlan.getKeyId(), 0 : All, n : n-th entry of MExtractionPlan.getFields() + 1 )
+ * followed by one ( vint length, UTF-8 bytes ) pair for each capture of the name template.
+ * A capture that is not available is written as the "$N" literal, as the name strings did.
+ *
+ * A key whose name other captures may render the same ( "$1$2" with "a" + "bc" and "ab" + "c",
+ * or "Status-$1" next to a literal "Status-404" ) is written by name instead, so that the records
+ * are merged like the name strings were : vint FIELD_ID_NAME, vint key id of the type
+ * ( MExtractionPlan.getNameTypeId() ) and the UTF-8 bytes of the name without the type.
+ *
+ * The display name is only rebuilt on the reduce side.
+ * encode() copies the captures straight from the line into a reused buffer,
+ * so no String is created per record.
+ */
+public class MKeyCodec
+implements MConstants
+{
+public static final int FIELD_ID_ALL = 0;
+public static final int FIELD_ID_NAME = -1;
+
+private final MExtractionPlan plan;
+private final MField[] fields;
+private final DataOutputBuffer buffer = new DataOutputBuffer();
+private byte[] utf8 = new byte[ 256 ];
+private final StringBuilder nameBuffer = new StringBuilder( 64 );
+//--------------------------------------------------------------------------------
+public MKeyCodec( MExtractionPlan plan )
+{
+this.plan = plan;
+fields = plan.getFields();
+}
+//--------------------------------------------------------------------------------
+public void encodeAll( BytesWritable out )
+throws IOException
+{
+buffer.reset();
+final int nameTypeId = plan.getNameTypeId( FIELD_ID_ALL );
+if( nameTypeId >= 0 )
+	{
+	WritableUtils.writeVInt( buffer, FIELD_ID_NAME );
+	WritableUtils.writeVInt( buffer, nameTypeId );
+	writeUTF8( "All", 0, 3 );
+	}
+else
+	{
+	WritableUtils.writeVInt( buffer, FIELD_ID_ALL );
+	}
+out.set( buffer.getData(), 0, buffer.getLength() );
+}
+//--------------------------------------------------------------------------------
+public void encode( int fieldIndex, CharSequence line, Matcher matcher, BytesWritable out )
+throws IOException
+{
+final MField field = fields[ fieldIndex ];
+final int keyId = plan.getKeyId( fieldIndex );
+final int nameTypeId = plan.getNameTypeId( keyId );
+buffer.reset();
+if( nameTypeId >= 0 )
+	{
+	WritableUtils.writeVInt( buffer, FIELD_ID_NAME );
+	WritableUtils.writeVInt( buffer, nameTypeId );
+	}
+else
+	{
+	WritableUtils.writeVInt( buffer, keyId );
+	}
+if( field.isNameSubstituted() )
+	{
+	final MNameTemplate template = field.getNameTemplate();
+	final int segmentCount = template.getSegmentCount();
+	for( int i = 0; i < segmentCount; ++i )
+		{
+		final int group = template.getGroup( i );
+		if( group < 0 )
+			{
+			if( nameTypeId >= 0 )
+				{
+				writeUTF8( template.getLiteral( i ), 0, template.getLiteral( i ).length() );
+				}
+			continue;
+			}
+		final int start = ( group <= matcher.groupCount() ) ? matcher.start( group ) : -1;
+		final int length;
+		if( start == -1 )
+			{
+			length = encodeUTF8( template.getLiteral( i ), 0, template.getLiteral( i ).length() );
+			}
+		else
+			{
+			length = encodeUTF8( line, start, matcher.end( group ) );
+			}
+		if( nameTypeId < 0 )
+			{
+			WritableUtils.writeVInt( buffer, length );
+			}
+		buffer.write( utf8, 0, length );
+		}
+	}
+else if( nameTypeId >= 0 )
+	{
+	writeUTF8( field.getName(), 0, field.getName().length() );
+	}
+out.set( buffer.getData(), 0, buffer.getLength() );
+}
+//--------------------------------------------------------------------------------
+private void writeUTF8( CharSequence s, int start, int end )
+throws IOException
+{
+final int length = encodeUTF8( s, start, end );
+buffer.write( utf8, 0, length );
+}
+//--------------------------------------------------------------------------------
+/*
+ * Same bytes as String.getBytes( "UTF-8" ), including '?' for unpaired surrogates.
+ * Returns the number of bytes written to utf8
+ */
+private int encodeUTF8( CharSequence s, int start, int end )
+{
+if( utf8.length < ( end - start ) * 3 )
+	{
+	utf8 = new byte[ ( end - start ) * 3 ];
+	}
+int length = 0;
+for( int i = start; i < end; ++i )
+	{
+	final char c = s.charAt( i );
+	if( c < 0x80 )
+		{
+		utf8[ length++ ] = ( byte )c;
+		}
+	else if( c < 0x800 )
+		{
+		utf8[ length++ ] = ( byte )( 0xC0 | ( c >> 6 ) );
+		utf8[ length++ ] = ( byte )( 0x80 | ( c & 0x3F ) );
+		}
+	else if( Character.isHighSurrogate( c ) && i + 1 < end && Character.isLowSurrogate( s.charAt( i + 1 ) ) )
+		{
+		final int cp = Character.toCodePoint( c, s.charAt( ++i ) );
+		utf8[ length++ ] = ( byte )( 0xF0 | ( cp >> 18 ) );
+		utf8[ length++ ] = ( byte )( 0x80 | ( ( cp >> 12 ) & 0x3F ) );
+		utf8[ length++ ] = ( byte )( 0x80 | ( ( cp >> 6 ) & 0x3F ) );
+		utf8[ length++ ] = ( byte )( 0x80 | ( cp & 0x3F ) );
+		}
+	else if( c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE )
+		{
+		utf8[ length++ ] = ( byte )'?';
+		}
+	else
+		{
+		utf8[ length++ ] = ( byte )( 0xE0 | ( c >> 12 ) );
+		utf8[ length++ ] = ( byte )( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+		utf8[ length++ ] = ( byte )( 0x80 | ( c & 0x3F ) );
+		}
+	}
+return length;
+}
+//--------------------------------------------------------------------------------
+/*
+ * The field of the key, or the field of its type for a key written by name.
+ * null for All and for a key written by name with the type of All
+ */
+private MField getField( byte[] b )
+throws IOException
+{
+int fieldId = WritableComparator.readVInt( b, 0 );
+if( fieldId == FIELD_ID_NAME )
+	{
+	fieldId = WritableComparator.readVInt( b, WritableUtils.decodeVIntSize( b[ 0 ] ) );
+	}
+if( fieldId == FIELD_ID_ALL )
+	{
+	return null;
+	}
+if( fieldId < 0 || fieldId > fields.length )
+	{
+	throw new IOException( "Unknown field id : " + fieldId );
+	}
+return fields[ fieldId - 1 ];
+}
+//--------------------------------------------------------------------------------
+public int getType( BytesWritable key )
+throws IOException
+{
+final MField field = getField( key.getBytes() );
+if( field == null )
+	{
+	return TYPE_ID_COUNT;
+	}
+else
+	{
+	return field.getType();
+	}
+}
+//--------------------------------------------------------------------------------
+public String decode( BytesWritable key )
+throws IOException
+{
+final byte[] b = key.getBytes();
+final MField field = getField( b );
+final StringBuilder buf = nameBuffer;
+buf.setLength( 0 );
+int pos = WritableUtils.decodeVIntSize( b[ 0 ] );
+if( WritableComparator.readVInt( b, 0 ) == FIELD_ID_NAME )
+	{
+	pos += WritableUtils.decodeVIntSize( b[ pos ] );
+	buf.append( Text.decode( b, pos, key.getLength() - pos ) );
+	}
+else if( field == null )
+	{
+	buf.append( "All" );
+	}
+else if( field.isNameSubstituted() )
+	{
+	final MNameTemplate template = field.getNameTemplate();
+	final int segmentCount = template.getSegmentCount();
+	for( int i = 0; i < segmentCount; ++i )
+		{
+		if( template.getGroup( i ) < 0 )
+			{
+			buf.append( template.getLiteral( i ) );
+			continue;
+			}
+		final int length = WritableComparator.readVInt( b, pos );
+		pos += WritableUtils.decodeVIntSize( b[ pos ] );
+		buf.append( Text.decode( b, pos, length ) );
+		pos += length;
+		}
+	}
+else
+	{
+	buf.append( field.getName() );
+	}
+buf.append( '_' );
+buf.append( ( field == null ) ? TYPE_COUNT : field.getTypeStr() );
+return buf.toString();
+}
+//--------------------------------------------------------------------------------
+}
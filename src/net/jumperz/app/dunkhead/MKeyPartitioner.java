@@ -0,0 +1,83 @@
+package net.jumperz.app.dunkhead;
+
+import java.io.IOException;
+import java.util.*;
+
+import net.arnx.jsonic.JSON;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Partitioner;
+
+/*
+ * Partitions by metric key only so that all time points of a metric reach the same reducer,
+ * except for hot keys ( see MHotKeys ), whose time ranges are spread over the reducers.
+ * MReduce writes segments for hot keys and Main merges them with MSegmentMerger.
+ */
+public class MKeyPartitioner
+implements Partitioner<MTimeKey, LongLongDoubleWritable>, MConstants
+{
+private static final Log LOG = LogFactory.getLog( MKeyPartitioner.class );
+
+private MKeyCodec codec;
+private MHotKeys hotKeys;
+private final Map<BytesWritable, Boolean> hotMap = new HashMap<BytesWritable, Boolean>();
+//--------------------------------------------------------------------------------
+public void configure( JobConf job )
+{
+final String confJsonStr = job.get( "confJsonStr" );
+if( confJsonStr == null )
+	{
+	return;
+	}
+final Map confMap = JSON.decode( confJsonStr );
+long step = DEFAULT_STEP;
+if( confMap.containsKey( "rrd" ) )
+	{
+	Map rrdMap = ( Map )confMap.get( "rrd" );
+	if( rrdMap.containsKey( "step" ) )
+		{
+		step = Long.parseLong( rrdMap.get( "step" ) + "" );
+		}
+	}
+final MHotKeys _hotKeys = new MHotKeys( confMap, job, step );
+if( !_hotKeys.isEmpty() )
+	{
+	hotKeys = _hotKeys;
+	codec = new MKeyCodec( new MExtractionPlan( confMap ) );
+	}
+}
+//--------------------------------------------------------------------------------
+private boolean isHot( BytesWritable name )
+{
+Boolean hot = ( Boolean )hotMap.get( name );
+if( hot == null )
+	{
+	try
+		{
+		hot = Boolean.valueOf( hotKeys.isHot( codec.decode( name ) ) );
+		}
+	catch( IOException e )
+		{
+		LOG.warn( e );
+		hot = Boolean.FALSE;
+		}
+	hotMap.put( new BytesWritable( Arrays.copyOf( name.getBytes(), name.getLength() ) ), hot );
+	}
+return hot.booleanValue();
+}
+//--------------------------------------------------------------------------------
+public int getPartition( MTimeKey key, LongLongDoubleWritable value, int numPartitions )
+{
+final int partition = ( key.getName().hashCode() & Integer.MAX_VALUE ) % numPartitions;
+if( hotKeys == null || !isHot( key.getName() ) )
+	{
+	return partition;
+	}
+final long range = hotKeys.getRange( key.getTime() );
+return ( int )( ( partition + ( range % numPartitions ) + numPartitions ) % numPartitions );
+}
+//--------------------------------------------------------------------------------
+}
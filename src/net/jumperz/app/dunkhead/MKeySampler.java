@@ -0,0 +1,198 @@
+package net.jumperz.app.dunkhead;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.*;
+import java.util.regex.*;
+
+import net.arnx.jsonic.JSON;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/*
+ * Optional pre-pass run by Main before the job.
+ * Reads the first lines of some input splits with the same MExtractionPlan as MMap,
+ * counts the records of each metric key, and then sets the number of reducers
+ * and the hot keys that MKeyPartitioner spreads by time range.
+ *
+ * "sampler" : {
+ *   "splits" : 0.05,          fraction of the input splits to read
+ *   "lines" : 10000,          maximum lines read from each split
+ *   "keysperreducer" : 200,   distinct metric keys per reducer
+ *   "maxreducers" : 64
+ *   }
+ *
+ * A key is hot when its share of the records is larger than the share of one reducer.
+ * Like MMap, only the records with a timestamp inside the time window are counted.
+ */
+public class MKeySampler
+implements MConstants
+{
+private static final Log LOG = LogFactory.getLog( MKeySampler.class );
+
+public static final double DEFAULT_SPLIT_FRACTION = 0.05;
+public static final int DEFAULT_LINES_PER_SPLIT = 10000;
+public static final int DEFAULT_KEYS_PER_REDUCER = 200;
+public static final int DEFAULT_MAX_REDUCERS = 64;
+
+private final double splitFraction;
+private final int linesPerSplit;
+private final int keysPerReducer;
+private final int maxReducers;
+
+private final MExtractionPlan plan;
+private final MKeyCodec codec;
+private final MTimestampParser timestampParser;
+private MTimeWindow window;
+private final BytesWritable logKey = new BytesWritable();
+private final Map<BytesWritable, long[]> countMap = new HashMap<BytesWritable, long[]>();
+private long totalCount;
+//--------------------------------------------------------------------------------
+public MKeySampler( Map confMap )
+{
+final Map samplerMap = ( Map )confMap.get( "sampler" );
+splitFraction	= getDouble( samplerMap, "splits", DEFAULT_SPLIT_FRACTION );
+linesPerSplit	= ( int )getDouble( samplerMap, "lines", DEFAULT_LINES_PER_SPLIT );
+keysPerReducer	= ( int )getDouble( samplerMap, "keysperreducer", DEFAULT_KEYS_PER_REDUCER );
+maxReducers		= ( int )getDouble( samplerMap, "maxreducers", DEFAULT_MAX_REDUCERS );
+
+plan = new MExtractionPlan( confMap );
+codec = new MKeyCodec( plan );
+timestampParser = new MTimestampParser( plan.getDateFormat() );
+}
+//--------------------------------------------------------------------------------
+private static double getDouble( Map map, String key, double defaultValue )
+{
+if( map == null || !map.containsKey( key ) )
+	{
+	return defaultValue;
+	}
+return Double.parseDouble( map.get( key ) + "" );
+}
+//--------------------------------------------------------------------------------
+public static boolean isEnabled( Map confMap )
+{
+return confMap.get( "sampler" ) instanceof Map;
+}
+//--------------------------------------------------------------------------------
+/*
+ * Samples the input of conf and sets the number of reducers and MHotKeys.JOB_PROPERTY
+ */
+public void configure( JobConf conf )
+throws IOException
+{
+window = MTimeWindow.getInstance( conf );
+final InputFormat<LongWritable, Text> inputFormat = conf.getInputFormat();
+final InputSplit[] splits = inputFormat.getSplits( conf, conf.getNumMapTasks() );
+if( splits.length == 0 )
+	{
+	return;
+	}
+
+	//every n-th split, so that the sample covers the whole time span of the input
+final int sampleCount = Math.max( 1, Math.min( splits.length, ( int )Math.ceil( splits.length * splitFraction ) ) );
+final int interval = splits.length / sampleCount;
+long lineCount = 0;
+for( int i = 0; i < sampleCount; ++i )
+	{
+	final RecordReader<LongWritable, Text> reader = inputFormat.getRecordReader( splits[ i * interval ], conf, Reporter.NULL );
+	try
+		{
+		final LongWritable key = reader.createKey();
+		final Text value = reader.createValue();
+		for( int k = 0; k < linesPerSplit && reader.next( key, value ); ++k )
+			{
+			sample( value.toString() );
+			++lineCount;
+			}
+		}
+	finally
+		{
+		reader.close();
+		}
+	}
+
+final int keyCount = countMap.size();
+final int reducers = Math.max( 1, Math.min( maxReducers, ( keyCount + keysPerReducer - 1 ) / keysPerReducer ) );
+conf.setNumReduceTasks( reducers );
+
+final List<String> hotKeyList = new ArrayList<String>();
+if( reducers > 1 )
+	{
+	final Iterator<Map.Entry<BytesWritable, long[]>> p = countMap.entrySet().iterator();
+	while( p.hasNext() )
+		{
+		final Map.Entry<BytesWritable, long[]> entry = p.next();
+		if( entry.getValue()[ 0 ] * reducers > totalCount )
+			{
+			hotKeyList.add( codec.decode( entry.getKey() ) );
+			}
+		}
+	}
+if( hotKeyList.size() > 0 )
+	{
+	conf.set( MHotKeys.JOB_PROPERTY, JSON.encode( hotKeyList ) );
+	}
+
+LOG.info( lineCount + " lines sampled from " + sampleCount + " of " + splits.length + " splits. "
+	+ keyCount + " keys, " + reducers + " reducers, hot keys : " + hotKeyList );
+}
+//--------------------------------------------------------------------------------
+private void sample( String line )
+throws IOException
+{
+if( !plan.match( line ) )
+	{
+	return;
+	}
+try
+	{
+	final long time = timestampParser.parse( line, plan.getDateStart(), plan.getDateEnd() );
+	if( window != null && !window.contains( time ) )
+		{
+		return;
+		}
+	}
+catch( ParseException e )
+	{
+	LOG.debug( e );
+	return;
+	}
+
+codec.encodeAll( logKey );
+count();
+
+final MField[] fields = plan.getFields();
+for( int i = 0; i < fields.length; ++i )
+	{
+	final Matcher matcher = plan.getMatcher( i );
+	if( matcher != null )
+		{
+		codec.encode( i, line, matcher, logKey );
+		count();
+		}
+	}
+}
+//--------------------------------------------------------------------------------
+private void count()
+{
+long[] count = ( long[] )countMap.get( logKey );
+if( count == null )
+	{
+	count = new long[ 1 ];
+	countMap.put( new BytesWritable( Arrays.copyOf( logKey.getBytes(), logKey.getLength() ) ), count );
+	}
+++count[ 0 ];
+++totalCount;
+}
+//--------------------------------------------------------------------------------
+}
@@ -1,18 +1,19 @@
 package net.jumperz.app.dunkhead;
 
 import java.io.IOException;
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.regex.*;
 
 import net.arnx.jsonic.JSON;
+import net.jumperz.util.MAsciiCharSequence;
+import net.jumperz.util.MDoubleParser;
 import net.jumperz.util.MEvalDoubleBase;
 import net.jumperz.util.MRegEx;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.JobConf;
@@ -23,13 +24,31 @@ import org.apache.hadoop.mapred.Reporter;
 
 public class MMap
 extends MapReduceBase
-implements Mapper<LongWritable, Text, Text, LongLongDoubleWritable>, MConstants
+implements Mapper<LongWritable, Text, MTimeKey, LongLongDoubleWritable>, MConstants
 {
 private static final Log LOG = LogFactory.getLog( MMap.class );
 private String confJsonStr;
 private Map confMap;
-private DateFormat df;
-private String dfStr;
+private MTimestampParser timestampParser;
+private MExtractionPlan plan;
+private MKeyCodec codec;
+private MMapAggregator aggregator;
+private final BytesWritable logKey = new BytesWritable();
+private final MAsciiCharSequence asciiLine = new MAsciiCharSequence();
+private final MTimeKey mapOutputKey = new MTimeKey();
+private final VLongLongDoubleWritable mapOutputValue = new VLongLongDoubleWritable();
+private boolean byteMode = true;
+private OutputCollector<MTimeKey, LongLongDoubleWritable> output;
+private JobConf job;
+private MTimeWindow window;
+
+	//time range of the split for MTimeIndex
+private boolean indexing;
+private long firstTime = Long.MAX_VALUE;
+private long lastTime = Long.MIN_VALUE;
+
+private long step = DEFAULT_STEP;
+private int aggregateSize = DEFAULT_MAP_AGGREGATE_SIZE;
 //--------------------------------------------------------------------------------
 public void configure( JobConf job )
 {
@@ -42,17 +61,96 @@ if( confJsonStr == null )
 LOG.debug( confJsonStr );
 confMap = JSON.decode( confJsonStr );
 
-dfStr =( ( Map )confMap.get( "datetime" ) ).get( "format" ) + "";
+	//eval expressions compiled by Main at submission
+final String evalClassName = job.get( "dunkhead.eval.class" );
+if( evalClassName != null )
+	{
+	try
+		{
+		MRegEx.registerEvalClass( job.getClassByName( evalClassName ), ( List )JSON.decode( job.get( "dunkhead.eval.list" ) ) );
+		}
+	catch( Exception e )
+		{
+		LOG.warn( e );
+		}
+	}
+
+plan = new MExtractionPlan( confMap );
+codec = new MKeyCodec( plan );
 
-if( dfStr.equalsIgnoreCase( DF_UNIX_MILLI ) )
+timestampParser = new MTimestampParser( plan.getDateFormat() );
+
+try
 	{
+	if( confMap.containsKey( "rrd" ) )
+		{
+		Map rrdMap = ( Map )confMap.get( "rrd" );
+		if( rrdMap.containsKey( "step" ) )
+			{
+			step = Long.parseLong( rrdMap.get( "step" ) + "" );
+			}
+		}
+	if( confMap.containsKey( "mapper.aggregate.size" ) )
+		{
+		aggregateSize = Integer.parseInt( confMap.get( "mapper.aggregate.size" ) + "" );
+		}
 	}
-else if( dfStr.equalsIgnoreCase( DF_UNIX_SECOND ) )
+catch( Exception e )
+	{
+	LOG.warn( e );
+	}
+
+if( confMap.containsKey( "mapper.aggregate" ) && confMap.get( "mapper.aggregate" ).equals( Boolean.FALSE ) )
 	{
+	LOG.info( "in-mapper aggregation disabled" );
 	}
 else
 	{
-	df = new SimpleDateFormat( dfStr, Locale.ENGLISH );
+	aggregator = new MMapAggregator( aggregateSize );
+	}
+
+if( Boolean.FALSE.equals( confMap.get( "mapper.bytes" ) ) )
+	{
+	LOG.info( "byte-level matching disabled" );
+	byteMode = false;
+	}
+
+this.job = job;
+window = MTimeWindow.getInstance( job );
+indexing = job.getBoolean( MTimeIndex.JOB_PROPERTY, false );
+}
+//--------------------------------------------------------------------------------
+public void close()
+throws IOException
+{
+if( aggregator != null && output != null )
+	{
+	aggregator.flush( output );
+	}
+if( indexing )
+	{
+	MTimeIndex.writeRange( job, firstTime, lastTime );
+	}
+}
+//--------------------------------------------------------------------------------
+private void collect( BytesWritable logKey, int type, long time, double value )
+throws IOException
+{
+final long timePoint = Util.getTimePoint( time, step );
+if( aggregator != null && MMapAggregator.accepts( type ) )
+	{
+	aggregator.add( logKey, type, timePoint, value );
+	if( aggregator.isFull() )
+		{
+		aggregator.flush( output );
+		}
+	}
+else
+	{
+		//collect() serializes immediately, so the Writables are reused
+	mapOutputKey.set( logKey, timePoint );
+	mapOutputValue.set( time, 1, value );
+	output.collect( mapOutputKey, mapOutputValue );
 	}
 }
 //--------------------------------------------------------------------------------
@@ -60,19 +158,7 @@ public static String getNameFromMatcher( String name, Matcher matcher )
 {
 try
 	{
-	while( true )
-		{
-		String s = MRegEx.getMatch( "\\$([0-9]+)", name );
-		if( s.equals( "" ) )
-			{
-			return name;
-			}
-		else
-			{
-			int index = Integer.parseInt( s );
-			name = name.replaceAll( "\\$" + index, matcher.group( index ) );
-			}
-		}	
+	return ( new MNameTemplate( name ) ).apply( matcher );
 	}
 catch( Exception e )
 	{
@@ -80,148 +166,103 @@ catch( Exception e )
 	}
 }
 //--------------------------------------------------------------------------------
-public void map( LongWritable key, Text value, OutputCollector<Text, LongLongDoubleWritable> output, Reporter reporter )
+public void map( LongWritable key, Text value, OutputCollector<MTimeKey, LongLongDoubleWritable> output, Reporter reporter )
 throws IOException  
 {
-final String line = value.toString();
-final String datetimeRegex = ( String )( ( Map )confMap.get( "datetime" ) ).get( "regex" );
-final String datePart = MRegEx.getMatch( datetimeRegex, line );
-if( datePart == null || datePart.length() == 0 )
+this.output = output;
+
+	//ASCII lines are matched on the Text bytes directly, others are decoded as before
+final CharSequence line;
+if( byteMode && asciiLine.set( value.getBytes(), 0, value.getLength() ) )
+	{
+	line = asciiLine;
+	}
+else
+	{
+	line = value.toString();
+	}
+
+if( !plan.match( line ) )
 	{
 	return;
 	}
 try
 	{
-	java.util.Date date = null;
-	if( df != null )
+	final long _longDate = timestampParser.parse( line, plan.getDateStart(), plan.getDateEnd() );
+	if( _longDate < firstTime )
 		{
-		date = df.parse( datePart );
+		firstTime = _longDate;
 		}
-	else
+	if( _longDate > lastTime )
 		{
-		if( dfStr.equalsIgnoreCase( DF_UNIX_MILLI ) )
-			{
-			final long  _longDate = Long.parseLong( datePart );
-			date = new java.util.Date( _longDate );
-			}
-		else if( dfStr.equalsIgnoreCase( DF_UNIX_SECOND ) )
-			{
-			final long  _longDate = ( long )( Double.parseDouble( datePart ) * 1000L );
-			date = new java.util.Date( _longDate );
-			}
-		else
-			{
-			LOG.debug( "DateFormat error" );
-			return;
-			}
+		lastTime = _longDate;
+		}
+	if( window != null && !window.contains( _longDate ) )
+		{
+		return;
 		}
-	final long _longDate = date.getTime();
-	final Long _LongDate = new Long( _longDate );
 	
 			//all
 	{
-	Text logKey = new Text( "All_" + TYPE_COUNT );
-	output.collect( logKey, new LongLongDoubleWritable( _longDate, 1, 1 ) );
+	codec.encodeAll( logKey );
+	collect( logKey, TYPE_ID_COUNT, _longDate, 1 );
 	}
 
-	List fields = ( List )confMap.get( "fields" );
-	if( fields == null )
-		{
-		return;
-		}
-	for( int i = 0; i < fields.size(); ++i )
+	final MField[] fields = plan.getFields();
+	for( int i = 0; i < fields.length; ++i )
 		{
-		final Map field = ( Map )fields.get( i );
-		final String name		= ( String )field.get( "name"  );
-		final String regex	= ( String )field.get( "regex" );
-		final String typeStr	= ( String )field.get( "type"  );
-		final String evalStr	= ( String )field.get( "eval"  ); //may be null
-		
-		if( name  == null
-		 || regex == null
-		 || typeStr  == null
-		  )
+		final MField field = fields[ i ];
+		final int type = field.getType();
+		final Matcher matcher = plan.getMatcher( i );
+		if( matcher == null )
 			{
-			LOG.warn( "Invalid configuration [ " + field + " ] ignored." );
 			continue;
 			}
 
-		if( evalStr != null )
+		if( field.getEvalStr() != null )
 			{
-			final Pattern pattern = Pattern.compile( regex, Pattern.CASE_INSENSITIVE | Pattern.DOTALL );
-			final Matcher matcher = pattern.matcher( line );
-			matcher.find();
-			
-			final String symbol = getNameFromMatcher( name, matcher );
+			final MEvalDoubleBase evaluator = field.getEvaluator();
+			if( evaluator == null )
+				{
+				continue;
+				}
 			double outputValue = 0;
 			try
 				{
-				final Object evaluator = MRegEx.getEvalDoubletClass( regex, evalStr ).newInstance();
-				evaluator.equals( matcher );
-				final String resultStr = evaluator.toString();
-				if( resultStr == null )
-					{
-					continue;
-					}
-				else
-					{
-					outputValue = Double.parseDouble( resultStr );
-					}
+				outputValue = evaluator.eval( line, matcher );
 				}
 			catch( Exception e )
 				{
-				LOG.info( e );
+					//missing or non-numeric group
+				LOG.debug( e );
 				continue;
 				}
 			
-			if( typeStr.equalsIgnoreCase( "average" )
-			 || typeStr.equalsIgnoreCase( "min" )
-			 || typeStr.equalsIgnoreCase( "max" )
-			  )
-				{
-				//ok
-				}
-			else if( typeStr.equals( "count" ) )
+			if( type == TYPE_ID_COUNT )
 				{
 				LOG.debug( "Invalid configuration. 'count' with 'eval'" );
 				outputValue = 1;
 				}
-			final Text logKey = new Text( symbol + "_" + typeStr );
-			output.collect( logKey, new LongLongDoubleWritable( _longDate, 1, outputValue ) );
+			codec.encode( i, line, matcher, logKey );
+			collect( logKey, type, _longDate, outputValue );
 			}
 		else
 			{
-			final Pattern pattern = Pattern.compile( regex, Pattern.CASE_INSENSITIVE | Pattern.DOTALL );
-			final Matcher matcher = pattern.matcher( line );
-			if( matcher.find() )
+			double outputValue = 0;
+			if( type == TYPE_ID_AVERAGE
+			 || type == TYPE_ID_MIN
+			 || type == TYPE_ID_MAX
+			  )
+				{
+				final int group = ( matcher.groupCount() > 0 ) ? 1 : 0;
+				outputValue = MDoubleParser.parse( line, matcher.start( group ), matcher.end( group ) );
+				}
+			else if( type == TYPE_ID_COUNT )
 				{
-				String matchStr = null;
-				if( matcher.groupCount() > 0 )
-					{
-					matchStr = matcher.group( 1 );
-					}
-				else
-					{
-					matchStr = line.substring( matcher.start(), matcher.end() );
-					}
-				
-				String symbol = getNameFromMatcher( name, matcher );
-				double outputValue = 0;
-				if( typeStr.equalsIgnoreCase( "average" )
-				 || typeStr.equalsIgnoreCase( "min" )
-				 || typeStr.equalsIgnoreCase( "max" )
-				  )
-					{
-					symbol = name;
-					outputValue = Double.parseDouble( matchStr );
-					}
-				else if( typeStr.equalsIgnoreCase( "count" ) )
-					{
-					outputValue = 1;
-					}
-				Text logKey = new Text( symbol + "_" + typeStr );
-				output.collect( logKey, new LongLongDoubleWritable( _longDate, 1, outputValue ) );
-				}			
+				outputValue = 1;
+				}
+			codec.encode( i, line, matcher, logKey );
+			collect( logKey, type, _longDate, outputValue );
 			}
 		}
 	}
@@ -0,0 +1,153 @@
+package net.jumperz.app.dunkhead;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.mapred.OutputCollector;
+
+/*
+ * In-mapper combiner.
+ * Partial aggregates are kept in an open-addressing table keyed by ( key id, time point )
+ * and emitted in the same form as MCombiner output ( time point, count, value ).
+ */
+public class MMapAggregator
+implements MConstants
+{
+private static final int EMPTY = -1;
+
+private final int maxSize;
+private final int mask;
+private final int[] slotKeys;
+private final long[] slotTimes;
+private final long[] slotCounts;
+private final double[] slotValues;
+private int size;
+
+private final Map<BytesWritable, Integer> keyIdMap = new HashMap<BytesWritable, Integer>();
+private final List<BytesWritable> keyList = new ArrayList<BytesWritable>();
+private int[] keyTypes = new int[ 64 ];
+private final MTimeKey flushKey = new MTimeKey();
+private final VLongLongDoubleWritable flushValue = new VLongLongDoubleWritable();
+//--------------------------------------------------------------------------------
+public MMapAggregator( int maxSize )
+{
+this.maxSize = maxSize;
+int capacity = 16;
+while( capacity < maxSize + ( maxSize / 2 ) )
+	{
+	capacity <<= 1;
+	}
+mask = capacity - 1;
+slotKeys = new int[ capacity ];
+slotTimes = new long[ capacity ];
+slotCounts = new long[ capacity ];
+slotValues = new double[ capacity ];
+Arrays.fill( slotKeys, EMPTY );
+}
+//--------------------------------------------------------------------------------
+public static boolean accepts( int type )
+{
+return type == TYPE_ID_COUNT
+    || type == TYPE_ID_AVERAGE
+    || type == TYPE_ID_MIN
+    || type == TYPE_ID_MAX;
+}
+//--------------------------------------------------------------------------------
+public boolean isFull()
+{
+return size >= maxSize || keyList.size() >= maxSize;
+}
+//--------------------------------------------------------------------------------
+private int getKeyId( BytesWritable key, int type )
+{
+final Integer keyId = keyIdMap.get( key );
+if( keyId != null )
+	{
+	return keyId.intValue();
+	}
+
+final int newKeyId = keyList.size();
+final BytesWritable keyCopy = new BytesWritable( Arrays.copyOf( key.getBytes(), key.getLength() ) );
+keyList.add( keyCopy );
+keyIdMap.put( keyCopy, new Integer( newKeyId ) );
+if( newKeyId == keyTypes.length )
+	{
+	keyTypes = Arrays.copyOf( keyTypes, newKeyId * 2 );
+	}
+keyTypes[ newKeyId ] = type;
+return newKeyId;
+}
+//--------------------------------------------------------------------------------
+public void add( BytesWritable key, int type, long timePoint, double value )
+{
+final int keyId = getKeyId( key, type );
+
+long h = timePoint * 0x9E3779B97F4A7C15L + keyId;
+h ^= ( h >>> 32 );
+int index = ( int )h & mask;
+while( true )
+	{
+	final int slotKey = slotKeys[ index ];
+	if( slotKey == EMPTY )
+		{
+		slotKeys[ index ] = keyId;
+		slotTimes[ index ] = timePoint;
+		slotCounts[ index ] = 1;
+		slotValues[ index ] = value;
+		++size;
+		return;
+		}
+	else if( slotKey == keyId && slotTimes[ index ] == timePoint )
+		{
+		++slotCounts[ index ];
+		if( type == TYPE_ID_MIN )
+			{
+			slotValues[ index ] = Math.min( slotValues[ index ], value );
+			}
+		else if( type == TYPE_ID_MAX )
+			{
+			slotValues[ index ] = Math.max( slotValues[ index ], value );
+			}
+		else
+			{
+			slotValues[ index ] += value;
+			}
+		return;
+		}
+	index = ( index + 1 ) & mask;
+	}
+}
+//--------------------------------------------------------------------------------
+public void flush( OutputCollector<MTimeKey, LongLongDoubleWritable> output )
+throws IOException
+{
+for( int i = 0; i < slotKeys.length; ++i )
+	{
+	final int keyId = slotKeys[ i ];
+	if( keyId == EMPTY )
+		{
+		continue;
+		}
+	final long count = slotCounts[ i ];
+	double outputValue = slotValues[ i ];
+	final int type = keyTypes[ keyId ];
+	if( type == TYPE_ID_COUNT )
+		{
+		outputValue = count;
+		}
+	else if( type == TYPE_ID_AVERAGE )
+		{
+		outputValue = outputValue / count;
+		}
+	flushKey.set( keyList.get( keyId ), slotTimes[ i ] );
+	flushValue.set( slotTimes[ i ], count, outputValue );
+	output.collect( flushKey, flushValue );
+	slotKeys[ i ] = EMPTY;
+	}
+size = 0;
+keyIdMap.clear();
+keyList.clear();
+}
+//--------------------------------------------------------------------------------
+}
@@ -0,0 +1,120 @@
+package net.jumperz.app.dunkhead;
+
+import java.util.*;
+import java.util.regex.*;
+
+/*
+ * A field name such as "Status-Code-$1" parsed once into literal and capture segments.
+ * A segment with group index -1 is a literal.
+ */
+public class MNameTemplate
+{
+private final String name;
+private final String[] literals;
+private final int[] groups;
+//--------------------------------------------------------------------------------
+public MNameTemplate( String name )
+{
+this.name = name;
+
+final List<String> literalList = new ArrayList<String>();
+final List<Integer> groupList = new ArrayList<Integer>();
+final StringBuilder buf = new StringBuilder();
+final int len = name.length();
+int i = 0;
+while( i < len )
+	{
+	final char c = name.charAt( i );
+	int j = i + 1;
+	while( c == '$' && j < len && name.charAt( j ) >= '0' && name.charAt( j ) <= '9' )
+		{
+		++j;
+		}
+	if( j > i + 1 )
+		{
+		if( buf.length() > 0 )
+			{
+			literalList.add( buf.toString() );
+			groupList.add( new Integer( -1 ) );
+			buf.setLength( 0 );
+			}
+		literalList.add( name.substring( i, j ) );
+		groupList.add( Integer.valueOf( name.substring( i + 1, j ) ) );
+		}
+	else
+		{
+		buf.append( c );
+		}
+	i = j;
+	}
+if( buf.length() > 0 )
+	{
+	literalList.add( buf.toString() );
+	groupList.add( new Integer( -1 ) );
+	}
+
+literals = ( String[] )literalList.toArray( new String[ literalList.size() ] );
+groups = new int[ groupList.size() ];
+for( int k = 0; k < groups.length; ++k )
+	{
+	groups[ k ] = ( ( Integer )groupList.get( k ) ).intValue();
+	}
+}
+//--------------------------------------------------------------------------------
+public String getName()
+{
+return name;
+}
+//--------------------------------------------------------------------------------
+public int getSegmentCount()
+{
+return groups.length;
+}
+//--------------------------------------------------------------------------------
+public int getGroup( int index )
+{
+return groups[ index ];
+}
+//--------------------------------------------------------------------------------
+public String getLiteral( int index )
+{
+return literals[ index ];
+}
+//--------------------------------------------------------------------------------
+public boolean hasGroup()
+{
+for( int i = 0; i < groups.length; ++i )
+	{
+	if( groups[ i ] >= 0 )
+		{
+		return true;
+		}
+	}
+return false;
+}
+//--------------------------------------------------------------------------------
+public String apply( Matcher matcher )
+{
+final StringBuilder buf = new StringBuilder( name.length() + 16 );
+for( int i = 0; i < groups.length; ++i )
+	{
+	final int group = groups[ i ];
+	if( group < 0 || group > matcher.groupCount() )
+		{
+		buf.append( literals[ i ] );
+		continue;
+		}
+	final String s = matcher.group( group );
+	if( s == null )
+		{
+		buf.append( literals[ i ] );
+		}
+	else
+		{
+		buf.append( s );
+		}
+	}
+return buf.toString();
+}
+//--------------------------------------------------------------------------------
+}
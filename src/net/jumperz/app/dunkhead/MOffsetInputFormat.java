@@ -0,0 +1,80 @@
+package net.jumperz.app.dunkhead;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import net.arnx.jsonic.JSON;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.TextInputFormat;
+
+/*
+ * TextInputFormat that only reads the part of each input file not processed by a previous run.
+ *
+ * Main passes the byte range [ start, end ) of each file in the "dunkhead.ranges" job property ( see MStateStore.getNewPaths() )
+ * and the splits are cut to it. LineRecordReader skips the partial line at the start of a split and finishes the line
+ * that crosses its end, so a line growing at the end of a file is read by exactly one run.
+ * Compressed files cannot be cut and are read as a whole.
+ */
+public class MOffsetInputFormat
+extends TextInputFormat
+{
+public static final String JOB_PROPERTY = "dunkhead.ranges";
+//--------------------------------------------------------------------------------
+public static void setRanges( JobConf job, Map<String, long[]> ranges )
+{
+final Map<String, List<Long>> rangeMap = new HashMap<String, List<Long>>();
+final Iterator<Map.Entry<String, long[]>> p = ranges.entrySet().iterator();
+while( p.hasNext() )
+	{
+	final Map.Entry<String, long[]> entry = p.next();
+	final List<Long> range = new ArrayList<Long>();
+	range.add( Long.valueOf( entry.getValue()[ 0 ] ) );
+	range.add( Long.valueOf( entry.getValue()[ 1 ] ) );
+	rangeMap.put( entry.getKey(), range );
+	}
+job.set( JOB_PROPERTY, JSON.encode( rangeMap ) );
+}
+//--------------------------------------------------------------------------------
+@Override
+public InputSplit[] getSplits( JobConf job, int numSplits )
+throws IOException
+{
+final InputSplit[] splits = super.getSplits( job, numSplits );
+final String value = job.get( JOB_PROPERTY );
+if( value == null )
+	{
+	return splits;
+	}
+final Map rangeMap = JSON.decode( value );
+final CompressionCodecFactory codecs = new CompressionCodecFactory( job );
+final List<InputSplit> splitList = new ArrayList<InputSplit>();
+for( int i = 0; i < splits.length; ++i )
+	{
+	final FileSplit split = ( FileSplit )splits[ i ];
+	final Path path = split.getPath();
+	final List range = ( List )rangeMap.get( path.getFileSystem( job ).makeQualified( path ).toString() );
+	if( range == null || codecs.getCodec( path ) != null )
+		{
+		splitList.add( split );
+		continue;
+		}
+	final long start = Math.max( split.getStart(), Long.parseLong( range.get( 0 ) + "" ) );
+	final long end = Math.min( split.getStart() + split.getLength(), Long.parseLong( range.get( 1 ) + "" ) );
+	if( start < end )
+		{
+		splitList.add( new FileSplit( path, start, end - start, split.getLocations() ) );
+		}
+	}
+return ( InputSplit[] )splitList.toArray( new InputSplit[ splitList.size() ] );
+}
+//--------------------------------------------------------------------------------
+}
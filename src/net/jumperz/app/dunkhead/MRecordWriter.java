@@ -1,5 +1,6 @@
 package net.jumperz.app.dunkhead;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -7,7 +8,6 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobConf;
@@ -16,7 +16,7 @@ import org.apache.hadoop.mapred.Reporter;
 import org.apache.hadoop.util.Progressable;
 
 
-public class MRecordWriter< K, V > implements RecordWriter<K, V>
+public class MRecordWriter implements RecordWriter<Text, MImage>
 {
 private OutputStream fileOut;
 private JobConf jobConf;
@@ -39,17 +39,22 @@ throws IOException
 }
 //--------------------------------------------------------------------------------
 @Override
-public void write( K key, V value )
+public void write( Text key, MImage value )
 throws IOException
 {
 LOG.info( "MRecordWriter:write():" + key );
-Path file = FileOutputFormat.getTaskOutputPath( jobConf, ( ( Text )key ).toString() );
+Path file = FileOutputFormat.getTaskOutputPath( jobConf, key.toString() );
 FileSystem fs = file.getFileSystem( jobConf );
-fileOut = fs.create( file, progress );
-BytesWritable bytes = ( BytesWritable )value;
-fileOut.write( bytes.getBytes() );
-fileOut.flush();
-fileOut.close();
+fileOut = new BufferedOutputStream( fs.create( file, progress ) );
+try
+	{
+	value.writeTo( fileOut );
+	fileOut.flush();
+	}
+finally
+	{
+	fileOut.close();
+	}
 }
 //--------------------------------------------------------------------------------
 }
\ No newline at end of file
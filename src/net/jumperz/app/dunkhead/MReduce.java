@@ -10,16 +10,21 @@ import java.util.Date;
 import java.util.Iterator;
 
 import net.arnx.jsonic.JSON;
+import net.jumperz.ext.org.jrobin.core.Archive;
+import net.jumperz.ext.org.jrobin.core.FetchData;
+import net.jumperz.ext.org.jrobin.core.RrdBackendFactory;
 import net.jumperz.ext.org.jrobin.core.RrdDb;
 import net.jumperz.ext.org.jrobin.core.RrdException;
+import net.jumperz.ext.org.jrobin.core.RrdMemoryBackendFactory;
 import net.jumperz.ext.org.jrobin.core.Sample;
+import net.jumperz.ext.org.jrobin.graph.Plottable;
 import net.jumperz.ext.org.jrobin.graph.RrdGraph;
 import net.jumperz.ext.org.jrobin.graph.RrdGraphDef;
 import net.jumperz.util.MRrdUtil;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.JobConf;
@@ -33,7 +38,7 @@ import java.io.*;
 
 public class MReduce
 extends MapReduceBase implements
-Reducer<Text, LongLongDoubleWritable, Text, BytesWritable>, MConstants
+Reducer<MTimeKey, LongLongDoubleWritable, Text, MImage>, MConstants
 {
 private static final Color c000000 = new Color( 0x00, 0x00, 0x00 );
 private static final Color c222222 = new Color( 0x22, 0x22, 0x22 );
@@ -49,11 +54,27 @@ public static boolean test = false;
 
 private String confJsonStr;
 private Map confMap;
+private MKeyCodec codec;
+private MDatabaseStore store;
+private MHotKeys hotKeys;
+private MStateStore stateStore;
+private int partition;
 private OutputStream testOut ;
+private long threshold = Long.MIN_VALUE;
+
+	//graph source, reused between keys
+private boolean useRrd = false;
+private long[] plotTimes = new long[ 1024 ];
+private double[] plotValues = new double[ 1024 ];
 
 	//rrd
 private long step = DEFAULT_STEP;
 private long heartbeat = DEFAULT_HEARTBEAT;
+private String rrdBackend = RrdMemoryBackendFactory.NAME;
+private RrdBackendFactory rrdFactory;
+private int rrdCount;
+private MStateStore.State stored; //state loaded by initRrd()
+private Reporter reporter; //null when called by MSegmentMerger
 //--------------------------------------------------------------------------------
 public void configure( JobConf job )
 {
@@ -65,6 +86,7 @@ if( confJsonStr == null )
 	}
 LOG.debug( confJsonStr );
 confMap = JSON.decode( confJsonStr );
+codec = new MKeyCodec( new MExtractionPlan( confMap ) );
 
 try
 	{
@@ -79,12 +101,83 @@ try
 			{
 			heartbeat = Long.parseLong( rrdMap.get( "heartbeat" ) + "" );
 			}		
+		if( rrdMap.containsKey( "backend" ) )
+			{
+			rrdBackend = ( rrdMap.get( "backend" ) + "" ).toUpperCase();
+			}
 		}
 	}
 catch( Exception e )
 	{
 	LOG.warn( e );
 	}
+try
+	{
+	rrdFactory = RrdBackendFactory.getFactory( rrdBackend );
+	}
+catch( RrdException e )
+	{
+	LOG.warn( e );
+	rrdFactory = RrdBackendFactory.getDefaultFactory();
+	rrdBackend = rrdFactory.getFactoryName();
+	}
+if( confMap.containsKey( "threshold" ) )
+	{
+	try
+		{
+		threshold = Long.parseLong( confMap.get( "threshold" ) + "" );
+		}
+	catch( Exception e )
+		{
+		LOG.info( e );
+		}
+	}
+
+	//graphs are drawn from the aggregated time points unless an RRD is requested
+if( Boolean.TRUE.equals( confMap.get( "reducer.rrd" ) ) )
+	{
+	LOG.info( "graphs are drawn through RRD files" );
+	useRrd = true;
+	}
+
+	//incremental runs update the stored RRDs
+try
+	{
+	stateStore = MStateStore.getInstance( confMap, job );
+	}
+catch( IOException e )
+	{
+	LOG.warn( e );
+	}
+if( stateStore != null )
+	{
+	useRrd = true;
+	rrdBackend = RrdMemoryBackendFactory.NAME;
+	try
+		{
+		rrdFactory = RrdBackendFactory.getFactory( rrdBackend );
+		}
+	catch( RrdException e )
+		{
+		throw new RuntimeException( e );
+		}
+	}
+
+if( confMap.containsKey( "aggregator" ) && confMap.get( "aggregator" ).equals( "h2" ) )
+	{
+	store = new MDatabaseStore( false, step );
+	}
+hotKeys = new MHotKeys( confMap, job, step );
+partition = job.getInt( "mapred.task.partition", 0 );
+}
+//--------------------------------------------------------------------------------
+public void close()
+throws IOException
+{
+if( store != null )
+	{
+	store.close();
+	}
 }
 //--------------------------------------------------------------------------------
 private void initTest( String key )
@@ -94,24 +187,35 @@ final File baseDir = new File( System.getProperty( "java.io.tmpdir" ) );
 testOut = new FileOutputStream( baseDir.getAbsolutePath() + "/" + key + ".test.txt" );
 }
 //--------------------------------------------------------------------------------
-public void reduce( Text key, Iterator<LongLongDoubleWritable> values, OutputCollector<Text, BytesWritable> outputCollector, Reporter reporter )
+public void reduce( MTimeKey timeKey, Iterator<LongLongDoubleWritable> values, OutputCollector<Text, MImage> outputCollector, Reporter reporter )
 throws IOException
 {
+final Text key = new Text( codec.decode( timeKey.getName() ) );
+this.reporter = reporter;
 if( test )
 	{
 	initTest( key.toString() );
 	}
 
-RrdDb db = null;
-long lastDataTimePoint = 0;
-long timeOfFirstRecord = 0;
-long totalCount = 0;
-long threshold = Long.MIN_VALUE;
+final int type = codec.getType( timeKey.getName() );
+if( type == TYPE_ID_UNKNOWN )
+	{
+	LOG.warn( "Unknown type : " + key );
+	return;
+	}
 
-Connection conn = null;
+MSeries series = null;
 try
 	{
-	conn = Util.putValuesToDatabase( values, reporter, false, step );
+	if( store != null )
+		{
+		store.load( values, reporter );
+		series = new MDatabaseSeries( store, type );
+		}
+	else
+		{
+		series = new MSortedSeries( values, reporter, type, step );
+		}
 	}
 catch( Exception e )
 	{
@@ -119,33 +223,142 @@ catch( Exception e )
 	return;
 	}
 
-try
+if( hotKeys.isHot( key.toString() ) )
 	{
-	String queryString = "";
-	if( key.toString().endsWith( TYPE_COUNT ) )
+	try
 		{
-		queryString = "select sum( count ), t from data group by t order by t asc;";
+		writeSegment( key, type, series, outputCollector );
 		}
-	else if( key.toString().endsWith( TYPE_AVERAGE ) )
+	finally
 		{
-		queryString = "select sum( count * value ) / sum( count ), t from data group by t order by t asc;";
+		series.close();
 		}
-	else if( key.toString().endsWith( TYPE_MIN ) )
+	return;
+	}
+render( key, type, series, outputCollector );
+}
+//--------------------------------------------------------------------------------
+/*
+ * This reducer only has some time ranges of a hot key.
+ * The series is written as is and the graph is drawn after the job by MSegmentMerger
+ */
+private void writeSegment( Text key, int type, MSeries series, OutputCollector<Text, MImage> outputCollector )
+throws IOException
+{
+final DataOutputBuffer buffer = new DataOutputBuffer();
+buffer.writeUTF( key.toString() );
+buffer.writeInt( type );
+int count = 0;
+while( series.next() )
+	{
+	buffer.writeLong( series.getTime() );
+	buffer.writeLong( series.getCount() );
+	buffer.writeDouble( series.getValue() );
+	++count;
+	}
+LOG.info( key + " : " + count + " time points written to segment " + partition );
+final String segmentName = MSegmentMerger.getSegmentName( toFileName( key.toString() ), partition );
+outputCollector.collect( new Text( segmentName ), new MImage( buffer.getData(), buffer.getLength() ) );
+}
+//--------------------------------------------------------------------------------
+/*
+ * Draws the graph of key
+ */
+public void render( Text key, int type, MSeries series, OutputCollector<Text, MImage> outputCollector )
+throws IOException
+{
+if( useRrd )
+	{
+	renderRrd( key, type, series, outputCollector );
+	return;
+	}
+
+int size = 0;
+long totalCount = 0;
+try
+	{
+	while( series.next() )
 		{
-		queryString = "select min( value ), t from data group by t order by t asc";
+		if( size == plotTimes.length )
+			{
+			plotTimes = Arrays.copyOf( plotTimes, size * 2 );
+			plotValues = Arrays.copyOf( plotValues, size * 2 );
+			}
+		plotTimes[ size ] = series.getTime();
+		plotValues[ size ] = series.getValue();
+		totalCount += series.getCount();
+		writeTest( plotTimes[ size ], plotValues[ size ] );
+		++size;
 		}
-	else if( key.toString().endsWith( TYPE_MAX ) )
+	}
+catch( IOException e )
+	{
+	LOG.warn( e );
+	return;
+	}
+finally
+	{
+	series.close();
+	}
+if( confMap.containsKey( "threshold" ) )
+	{
+	LOG.info( key.toString() + ":totalCount:" + totalCount );
+	}
+
+	//draw graph
+if( size > 0 && totalCount > threshold )
+	{
+	final long end = plotTimes[ size - 1 ] + ( 1000 * step );
+	final Plottable plottable = new MSeriesPlottable( plotTimes, plotValues, size, step, heartbeat );
+	try
 		{
-		queryString = "select max( value ), t from data group by t order by t asc";
+		final RrdGraph graph = getGraph( plottable, ( end - plotTimes[ 0 ] ) / 1000, key.toString(), end );
+		outputCollector.collect( new Text( toFileName( key.toString() ) + ".gif" ), new MImage( graph ) );
 		}
-	
+	catch( RrdException e )
+		{
+		throw new IOException( e );
+		}
+	}
+else
 	{
-	final PreparedStatement ps = conn.prepareStatement( queryString  );
-	final ResultSet rs = ps.executeQuery();
-	while( rs.next() )
+	LOG.info( key.toString() + " is ignored. Record count : " + totalCount );
+	}
+
+if( test )
+	{
+	testOut.flush();
+	testOut.close();
+	}
+}
+//--------------------------------------------------------------------------------
+/*
+ * Updates an RRD with the series and draws the graph of key.
+ *
+ * A GAUGE RRD cannot be updated at or before its last update, so the last time point is held back
+ * and only applied to the RRD after the state is taken. The next run adds its records for that time point
+ * to the held one ( see MStateStore.State ). Records older than the stored RRD are counted and skipped.
+ */
+private void renderRrd( Text key, int type, MSeries series, OutputCollector<Text, MImage> outputCollector )
+throws IOException
+{
+RrdDb db = null;
+long lastDataTimePoint = 0;
+long timeOfFirstRecord = 0;
+long totalCount = 0;
+long lastUpdateTime = 0; //sec
+long heldTime = 0;
+long heldCount = 0;
+double heldValue = 0; //raw aggregate
+long lateCount = 0;
+byte[] snapshot = null;
+stored = null;
+
+try
+	{
+	while( series.next() )
 		{
-		final double updateValue = rs.getDouble( 1 );
-		final long tp = rs.getLong( 2 );
+		final long tp = series.getTime();
 		lastDataTimePoint = tp;
 		
 		if( timeOfFirstRecord == 0 )
@@ -157,6 +370,7 @@ try
 			try
 				{
 				db = initRrd( key.toString(), Util.getTimePoint( tp, step ) - heartbeat );
+				lastUpdateTime = db.getHeader().getLastUpdateTime();
 				}
 			catch( IOException e )
 				{
@@ -164,86 +378,113 @@ try
 				e.printStackTrace();
 				return;
 				}
+			if( stored != null && stored.pendingCount > 0 )
+				{
+				heldTime = stored.pendingTime;
+				heldCount = stored.pendingCount;
+				heldValue = stored.pendingValue;
+				}
 			}
 		
-		try
+			//already in the stored RRD
+		if( ( tp + 500L ) / 1000L <= lastUpdateTime )
 			{
-			update( db, tp, updateValue );
+			lateCount += series.getCount();
+			continue;
 			}
-		catch( Exception e )
+		totalCount += series.getCount();
+		final double rawValue = ( type == TYPE_ID_AVERAGE ) ? series.getValue() * series.getCount() : series.getValue();
+		if( heldCount > 0 && tp == heldTime )
 			{
-			e.printStackTrace();
-			LOG.warn( e );
+			heldCount += series.getCount();
+			heldValue = MSeriesAggregator.merge( type, heldValue, rawValue );
 			}
-		}
-	ps.close();
-	rs.close();
-	}
-	
-	if( confMap.containsKey( "threshold" ) )
-		{
-		try
+		else if( heldCount > 0 && tp < heldTime )
 			{
-			threshold = Long.parseLong( confMap.get( "threshold" ) + "" );
+				//between the stored RRD and the held time point
+			updateQuietly( db, tp, series.getValue() );
 			}
-		catch( Exception e )
+		else
 			{
-			LOG.info( e );
+			if( heldCount > 0 )
+				{
+				updateQuietly( db, heldTime, MSeriesAggregator.toOutputValue( type, heldCount, heldValue ) );
+				}
+			heldTime = tp;
+			heldCount = series.getCount();
+			heldValue = rawValue;
 			}
-		
-		final PreparedStatement ps = conn.prepareStatement( "select sum( count ) from data" );
-		final ResultSet rs = ps.executeQuery();
-		if( rs.next() )
+		}
+	
+	if( heldCount > 0 )
+		{
+		if( stateStore != null )
 			{
-			totalCount = rs.getLong( 1 );
-			LOG.info( key.toString() + ":totalCount:" + totalCount );
+			snapshot = db.getBytes();
 			}
-		ps.close();
-		rs.close();
+		updateQuietly( db, heldTime, MSeriesAggregator.toOutputValue( type, heldCount, heldValue ) );
+		lastDataTimePoint = Math.max( lastDataTimePoint, heldTime );
 		}
 	
+		//the records of previous runs are in the graph as well
+	if( stored != null )
+		{
+		totalCount += stored.count;
+		}
+	if( confMap.containsKey( "threshold" ) )
+		{
+		LOG.info( key.toString() + ":totalCount:" + totalCount );
+		}
+	if( lateCount > 0 )
+		{
+		LOG.warn( key.toString() + " : " + lateCount + " records before the last update of the stored RRD skipped" );
+		if( reporter != null )
+			{
+			reporter.incrCounter( "dunkhead", "late records skipped", lateCount );
+			}
+		}
 	}
-catch( SQLException e )
+catch( IOException e )
 	{
 	e.printStackTrace( System.out );
 	LOG.warn( e );
+	releaseRrd( db );
 	return;
 	}
 finally
 	{
-	if( conn != null )
-		{
-		try
-			{
-			conn.prepareStatement( "DROP ALL OBJECTS DELETE FILES;" ).executeUpdate();
-			conn.close();
-			}
-		catch( Exception e )
-			{
-			LOG.info( e );
-			}
-		}
+	series.close();
 	}
 
-
-
 	//draw graph
-if( totalCount > threshold )
+try
 	{
-	try
+	if( db != null && stateStore != null )
 		{
-		final byte[] graphBytes = getGraphBytes( db.getPath(), ( ( lastDataTimePoint + ( 1000 * step ) ) - timeOfFirstRecord ) / 1000 , key.toString(), lastDataTimePoint + ( 1000 * step ) );
-		outputCollector.collect( new Text( toFileName( key.toString() ) + ".gif" ), new BytesWritable( graphBytes ) );
-		db = null;
+		final MStateStore.State state = ( snapshot != null )
+	 ? new MStateStore.State( totalCount, heldTime, heldCount, heldValue, snapshot )
+	 : new MStateStore.State( totalCount, 0, 0, 0, db.getBytes() );
+	outputCollector.collect( new Text( MStateStore.getStateName( key.toString() ) ), state.toImage() );
+		timeOfFirstRecord = Math.min( timeOfFirstRecord, getFirstDataTime( db ) );
 		}
-	catch( RrdException e )
+	if( db != null && totalCount > threshold )
 		{
-		throw new IOException( e );
+		final RrdGraph graph = getGraph( db, rrdBackend, ( ( lastDataTimePoint + ( 1000 * step ) ) - timeOfFirstRecord ) / 1000 , key.toString(), lastDataTimePoint + ( 1000 * step ) );
+			//drawn by the record writer before the RRD is released
+		outputCollector.collect( new Text( toFileName( key.toString() ) + ".gif" ), new MImage( graph ) );
+		}
+	else
+		{
+		LOG.info( key.toString() + " is ignored. Record count : " + totalCount );
 		}
 	}
-else
+catch( RrdException e )
 	{
-	LOG.info( key.toString() + " is ignored. Record count : " + totalCount );
+	throw new IOException( e );
+	}
+finally
+	{
+	releaseRrd( db );
 	}
 
 if( test )
@@ -253,6 +494,37 @@ if( test )
 	}
 }
 //--------------------------------------------------------------------------------
+/*
+ * The oldest time ( ms ) that still has data in one of the AVERAGE archives of db
+ */
+private static long getFirstDataTime( RrdDb db )
+throws IOException, RrdException
+{
+final long end = db.getHeader().getLastUpdateTime();
+long first = end;
+for( int i = 0; i < db.getHeader().getArcCount(); ++i )
+	{
+	final Archive archive = db.getArchive( i );
+	if( !archive.getConsolFun().equals( "AVERAGE" ) )
+		{
+		continue;
+		}
+	final long arcStep = archive.getArcStep();
+	final FetchData data = db.createFetchRequest( "AVERAGE", end - arcStep * archive.getRows(), end, arcStep ).fetchData();
+	final long[] timestamps = data.getTimestamps();
+	final double[] values = data.getValues( 0 );
+	for( int k = 0; k < timestamps.length; ++k )
+		{
+		if( !Double.isNaN( values[ k ] ) )
+			{
+			first = Math.min( first, timestamps[ k ] - arcStep );
+			break;
+			}
+		}
+	}
+return first * 1000;
+}
+//--------------------------------------------------------------------------------
 public static String toFileName( String keyStr )
 {
 if( keyStr.length() > 70 )
@@ -264,7 +536,7 @@ keyStr = keyStr.replaceAll( ":" , "-" );
 return keyStr;
 }
 //--------------------------------------------------------------------------------
-public static final byte[] getGraphBytes( String rrdFileName, long period, String title, long end )
+public static final RrdGraph getGraph( String rrdFileName, long period, String title, long end )
 throws IOException, RrdException
 {
 	//create graph
@@ -276,6 +548,43 @@ gd.setTimePeriod( start, end );
 String graphSourceName = "graphSource";
 	
 gd.datasource( graphSourceName, rrdFileName, "ds", "AVERAGE" );
+return getGraph( gd, graphSourceName, title );
+}
+//--------------------------------------------------------------------------------
+/*
+ * The graph reads db through the backend by its path, so a memory backend is never written to disk
+ */
+public static final RrdGraph getGraph( RrdDb db, String backendName, long period, String title, long end )
+throws IOException, RrdException
+{
+RrdGraphDef gd = new RrdGraphDef();
+end = end / 1000;
+long start = end - period;
+gd.setTimePeriod( start, end );
+
+String graphSourceName = "graphSource";
+
+gd.datasource( graphSourceName, db.getPath(), "ds", "AVERAGE", backendName );
+return getGraph( gd, graphSourceName, title );
+}
+//--------------------------------------------------------------------------------
+public static final RrdGraph getGraph( Plottable plottable, long period, String title, long end )
+throws IOException, RrdException
+{
+RrdGraphDef gd = new RrdGraphDef();
+end = end / 1000;
+long start = end - period;
+gd.setTimePeriod( start, end );
+
+String graphSourceName = "graphSource";
+
+gd.datasource( graphSourceName, plottable );
+return getGraph( gd, graphSourceName, title );
+}
+//--------------------------------------------------------------------------------
+private static RrdGraph getGraph( RrdGraphDef gd, String graphSourceName, String title )
+throws RrdException
+{
 Font verdana = Font.decode( "Verdana-BOLD-11" );
 gd.setTitle( title );
 gd.setTitleFont( verdana );
@@ -299,17 +608,23 @@ gd.setFrameColor( c333333 );
 gd.area( graphSourceName, c113311, null );
 gd.line( graphSourceName, c00FF00, null, 1 );
 
-return ( new RrdGraph( gd ) ).getGIFBytes();
+return new RrdGraph( gd );
 }
 //--------------------------------------------------------------------------------
-public void update( RrdDb db, long time, double value )
-throws Exception
+private void writeTest( long time, double value )
+throws IOException
 {
 if( test )
 	{
 	testOut.write( ( new Date( time ) + "\t" + value ).getBytes() );
 	testOut.write( 0x0A );
 	}
+}
+//--------------------------------------------------------------------------------
+public void update( RrdDb db, long time, double value )
+throws Exception
+{
+writeTest( time, value );
 //LOG.info( new Date( time ) + ":" + value );
 time = ( time + 500L ) / 1000L;
 Sample sample = db.createSample( time );
@@ -317,9 +632,43 @@ sample.setValue( 0, value );
 sample.update();
 }
 //--------------------------------------------------------------------------------
+private void updateQuietly( RrdDb db, long time, double value )
+{
+try
+	{
+	update( db, time, value );
+	}
+catch( Exception e )
+	{
+	e.printStackTrace();
+	LOG.warn( e );
+	}
+}
+//--------------------------------------------------------------------------------
 public RrdDb initRrd( String keyStr, long startTime )
 throws IOException
 {
+stored = ( stateStore != null ) ? stateStore.read( keyStr ) : null;
+if( stored != null )
+	{
+	final String id = "dunkhead-" + partition + "-" + ( rrdCount++ );
+	( ( RrdMemoryBackendFactory )rrdFactory ).load( id, stored.rrd );
+	try
+		{
+		return new RrdDb( id, rrdFactory );
+		}
+	catch( RrdException e )
+		{
+		throw new IOException( e );
+		}
+	}
+
+if( rrdFactory instanceof RrdMemoryBackendFactory )
+	{
+		//the path is only an id of the storage
+	return MRrdUtil.createStandardRrdFile( startTime , "GAUGE", "dunkhead-" + partition + "-" + ( rrdCount++ ), "ds", step, heartbeat, rrdFactory );
+	}
+
 final File baseDir = new File( System.getProperty( "java.io.tmpdir" ) );
 final String fileName = baseDir.getAbsolutePath() + "/" + System.currentTimeMillis() + "_" + ( new Random() ).nextInt( 1000 ) + ".rrd";
 final File rrdFile = new File( fileName );
@@ -327,9 +676,30 @@ if( rrdFile.exists() )
 	{
 	rrdFile.delete();
 	}
-RrdDb db = MRrdUtil.createStandardRrdFile( startTime , "GAUGE", fileName, "ds", step, heartbeat );
+RrdDb db = MRrdUtil.createStandardRrdFile( startTime , "GAUGE", fileName, "ds", step, heartbeat, rrdFactory );
 ( new File( fileName ) ).deleteOnExit();
 return db;
 }
 //--------------------------------------------------------------------------------
+/*
+ * Closes db and frees its storage
+ */
+private void releaseRrd( RrdDb db )
+throws IOException
+{
+if( db == null )
+	{
+	return;
+	}
+db.close();
+if( rrdFactory instanceof RrdMemoryBackendFactory )
+	{
+	( ( RrdMemoryBackendFactory )rrdFactory ).delete( db.getPath() );
+	}
+else
+	{
+	( new File( db.getPath() ) ).delete();
+	}
+}
+//--------------------------------------------------------------------------------
 }
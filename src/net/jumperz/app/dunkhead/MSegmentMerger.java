@@ -0,0 +1,172 @@
+package net.jumperz.app.dunkhead;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+
+/*
+ * Joins the time range segments of hot keys written by the reducers ( see MKeyPartitioner )
+ * and draws their graphs into the output directory after the job.
+ *
+ * A segment holds the display name ( writeUTF ) and the type id ( int ) followed by ( long time, long count, double value )
+ * rows. A time point belongs to exactly one range, so the segments of a key never overlap.
+ */
+public class MSegmentMerger
+implements MConstants
+{
+private static final Log LOG = LogFactory.getLog( MSegmentMerger.class );
+
+public static final String SEGMENT_SUFFIX = ".seg";
+public static final String CONTAINER_NAME = "part-hotkeys" + MFileOutputFormat.CONTAINER_SUFFIX;
+//--------------------------------------------------------------------------------
+public static String getSegmentName( String fileName, int partition )
+{
+return fileName + "." + partition + SEGMENT_SUFFIX;
+}
+//--------------------------------------------------------------------------------
+public static void merge( JobConf conf, final Path outputPath )
+throws IOException
+{
+final FileSystem fs = outputPath.getFileSystem( conf );
+final FileStatus[] statuses = fs.listStatus( outputPath );
+if( statuses == null )
+	{
+	return;
+	}
+
+final Map<String, SortedMap<Long, double[]>> seriesMap = new TreeMap<String, SortedMap<Long, double[]>>();
+final Map<String, Integer> typeMap = new HashMap<String, Integer>();
+final List<Path> segmentList = new ArrayList<Path>();
+for( int i = 0; i < statuses.length; ++i )
+	{
+	final Path path = statuses[ i ].getPath();
+	if( !path.getName().endsWith( SEGMENT_SUFFIX ) )
+		{
+		continue;
+		}
+	segmentList.add( path );
+
+	final DataInputStream in = fs.open( path );
+	try
+		{
+		final String name = in.readUTF();
+		typeMap.put( name, new Integer( in.readInt() ) );
+		SortedMap<Long, double[]> rows = seriesMap.get( name );
+		if( rows == null )
+			{
+			rows = new TreeMap<Long, double[]>();
+			seriesMap.put( name, rows );
+			}
+		while( true )
+			{
+			final long time;
+			try
+				{
+				time = in.readLong();
+				}
+			catch( EOFException e )
+				{
+				break;
+				}
+			final long count = in.readLong();
+			final double value = in.readDouble();
+			rows.put( new Long( time ), new double[]{ count, value } );
+			}
+		}
+	finally
+		{
+		in.close();
+		}
+	}
+if( segmentList.isEmpty() )
+	{
+	return;
+	}
+
+	//the graphs of hot keys go into a container of their own in container mode
+final MContainerRecordWriter containerWriter;
+if( MFileOutputFormat.isContainer( conf ) )
+	{
+	containerWriter = new MContainerRecordWriter( conf, fs.create( new Path( outputPath, CONTAINER_NAME ) ), null );
+	}
+else
+	{
+	containerWriter = null;
+	}
+final OutputCollector<Text, MImage> collector = new OutputCollector<Text, MImage>()
+	{
+	public void collect( Text key, MImage value )
+	throws IOException
+	{
+	if( containerWriter != null && !MContainerRecordWriter.isSideFile( key.toString() ) )
+		{
+		containerWriter.write( key, value );
+		return;
+		}
+	final OutputStream out = new BufferedOutputStream( fs.create( new Path( outputPath, key.toString() ) ) );
+	try
+		{
+		value.writeTo( out );
+		}
+	finally
+		{
+		out.close();
+		}
+	}
+	};
+
+final MReduce reduce = new MReduce();
+reduce.configure( conf );
+try
+	{
+	final Iterator<String> p = seriesMap.keySet().iterator();
+	while( p.hasNext() )
+		{
+		final String name = p.next();
+		final SortedMap<Long, double[]> rows = seriesMap.get( name );
+		final int size = rows.size();
+		final long[] times = new long[ size ];
+		final long[] counts = new long[ size ];
+		final double[] values = new double[ size ];
+		int i = 0;
+		final Iterator<Map.Entry<Long, double[]>> q = rows.entrySet().iterator();
+		while( q.hasNext() )
+			{
+			final Map.Entry<Long, double[]> entry = q.next();
+			times[ i ] = entry.getKey().longValue();
+			counts[ i ] = ( long )entry.getValue()[ 0 ];
+			values[ i ] = entry.getValue()[ 1 ];
+			++i;
+			}
+		LOG.info( name + " : " + size + " time points merged" );
+		reduce.render( new Text( name ), typeMap.get( name ).intValue(), new MArraySeries( times, counts, values, size ), collector );
+		}
+	}
+finally
+	{
+	reduce.close();
+	if( containerWriter != null )
+		{
+		containerWriter.close( null );
+		}
+	}
+
+for( int i = 0; i < segmentList.size(); ++i )
+	{
+	fs.delete( segmentList.get( i ), false );
+	}
+}
+//--------------------------------------------------------------------------------
+}
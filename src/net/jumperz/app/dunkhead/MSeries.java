@@ -0,0 +1,15 @@
+package net.jumperz.app.dunkhead;
+
+import java.io.IOException;
+
+/*
+ * Aggregated per-step series of one reduce key, in ascending time point order.
+ */
+public interface MSeries
+{
+public boolean next() throws IOException;
+public long getTime();
+public long getCount();
+public double getValue();
+public void close();
+}
@@ -0,0 +1,379 @@
+package net.jumperz.app.dunkhead;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.mapred.Reporter;
+
+/*
+ * Native replacement for the "group by t" queries on H2.
+ * Values are folded into an open-addressing table keyed by time point. When the table
+ * reaches maxSize entries it is written to java.io.tmpdir as a run sorted by time point,
+ * and getSeries() merges the runs with what is left in memory.
+ * reset() makes the instance reusable for the next key without reallocating the table.
+ */
+public class MSeriesAggregator
+implements MConstants
+{
+private static final Log LOG = LogFactory.getLog( MSeriesAggregator.class );
+
+private int type;
+private final long step;
+private final int maxSize;
+private final int mask;
+private final boolean[] slotUsed;
+private final long[] slotTimes;
+private final long[] slotCounts;
+private final double[] slotValues;
+private final int[] usedSlots;
+private int size;
+
+private final List<File> runFileList = new ArrayList<File>();
+private final List<DataInputStream> runInList = new ArrayList<DataInputStream>();
+private long totalCount;
+//--------------------------------------------------------------------------------
+public MSeriesAggregator( int type, long step, int maxSize )
+{
+this.type = type;
+this.step = step;
+this.maxSize = maxSize;
+int capacity = 16;
+while( capacity < maxSize + ( maxSize / 2 ) )
+	{
+	capacity <<= 1;
+	}
+mask = capacity - 1;
+slotUsed = new boolean[ capacity ];
+slotTimes = new long[ capacity ];
+slotCounts = new long[ capacity ];
+slotValues = new double[ capacity ];
+usedSlots = new int[ maxSize ];
+}
+//--------------------------------------------------------------------------------
+/*
+ * Discards everything added so far, including spilled runs
+ */
+public void reset( int type )
+{
+close();
+clearSlots();
+totalCount = 0;
+this.type = type;
+}
+//--------------------------------------------------------------------------------
+private void clearSlots()
+{
+for( int i = 0; i < size; ++i )
+	{
+	slotUsed[ usedSlots[ i ] ] = false;
+	}
+size = 0;
+}
+//--------------------------------------------------------------------------------
+public void addAll( Iterator<LongLongDoubleWritable> values, Reporter reporter )
+throws IOException
+{
+int index = 0;
+while( values.hasNext() )
+	{
+	final LongLongDoubleWritable value = values.next();
+	final long count = value.getCount();
+	final double eachValue = value.getValue();
+	if( type == TYPE_ID_AVERAGE )
+		{
+		add( Util.getTimePoint( value.getTime(), step ), count, count * eachValue );
+		}
+	else
+		{
+		add( Util.getTimePoint( value.getTime(), step ), count, eachValue );
+		}
+
+	++index;
+	if( ( index % 10000 ) == 0 )
+		{
+		reporter.progress();
+		}
+	}
+}
+//--------------------------------------------------------------------------------
+public long getTotalCount()
+{
+return totalCount;
+}
+//--------------------------------------------------------------------------------
+private double merge( double a, double b )
+{
+return merge( type, a, b );
+}
+//--------------------------------------------------------------------------------
+static double merge( int type, double a, double b )
+{
+if( type == TYPE_ID_MIN )
+	{
+	return Math.min( a, b );
+	}
+else if( type == TYPE_ID_MAX )
+	{
+	return Math.max( a, b );
+	}
+else
+	{
+	return a + b;
+	}
+}
+//--------------------------------------------------------------------------------
+private double toOutputValue( long count, double value )
+{
+return toOutputValue( type, count, value );
+}
+//--------------------------------------------------------------------------------
+static double toOutputValue( int type, long count, double value )
+{
+if( type == TYPE_ID_COUNT )
+	{
+	return count;
+	}
+else if( type == TYPE_ID_AVERAGE )
+	{
+	return value / count;
+	}
+else
+	{
+	return value;
+	}
+}
+//--------------------------------------------------------------------------------
+private int getSlot( long timePoint )
+{
+long h = timePoint * 0x9E3779B97F4A7C15L;
+h ^= ( h >>> 32 );
+int index = ( int )h & mask;
+while( slotUsed[ index ] && slotTimes[ index ] != timePoint )
+	{
+	index = ( index + 1 ) & mask;
+	}
+return index;
+}
+//--------------------------------------------------------------------------------
+/*
+ * For TYPE_ID_AVERAGE the value must already be multiplied by count
+ */
+public void add( long timePoint, long count, double value )
+throws IOException
+{
+totalCount += count;
+final int index = getSlot( timePoint );
+if( slotUsed[ index ] )
+	{
+	slotCounts[ index ] += count;
+	slotValues[ index ] = merge( slotValues[ index ], value );
+	return;
+	}
+
+slotUsed[ index ] = true;
+slotTimes[ index ] = timePoint;
+slotCounts[ index ] = count;
+slotValues[ index ] = value;
+usedSlots[ size ] = index;
+++size;
+if( size >= maxSize )
+	{
+	spill();
+	}
+}
+//--------------------------------------------------------------------------------
+private long[] getSortedTimes()
+{
+final long[] times = new long[ size ];
+for( int i = 0; i < size; ++i )
+	{
+	times[ i ] = slotTimes[ usedSlots[ i ] ];
+	}
+Arrays.sort( times );
+return times;
+}
+//--------------------------------------------------------------------------------
+private void spill()
+throws IOException
+{
+final long[] times = getSortedTimes();
+final File runFile = File.createTempFile( "dunkhead_", ".run", new File( System.getProperty( "java.io.tmpdir" ) ) );
+runFile.deleteOnExit();
+runFileList.add( runFile );
+
+final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( runFile ), 65536 ) );
+try
+	{
+	for( int i = 0; i < times.length; ++i )
+		{
+		final int index = getSlot( times[ i ] );
+		out.writeLong( times[ i ] );
+		out.writeLong( slotCounts[ index ] );
+		out.writeDouble( slotValues[ index ] );
+		}
+	}
+finally
+	{
+	out.close();
+	}
+LOG.info( size + " time points spilled to " + runFile.getAbsolutePath() );
+
+clearSlots();
+}
+//--------------------------------------------------------------------------------
+public MSeries getSeries()
+throws IOException
+{
+final long[] times = getSortedTimes();
+final long[] counts = new long[ times.length ];
+final double[] memValues = new double[ times.length ];
+for( int i = 0; i < times.length; ++i )
+	{
+	final int index = getSlot( times[ i ] );
+	counts[ i ] = slotCounts[ index ];
+	memValues[ i ] = slotValues[ index ];
+	}
+
+final int runCount = runFileList.size();
+for( int i = 0; i < runCount; ++i )
+	{
+	runInList.add( new DataInputStream( new BufferedInputStream( new FileInputStream( ( File )runFileList.get( i ) ), 65536 ) ) );
+	}
+
+return new MSeries()
+	{
+	private int memIndex = 0;
+	private final boolean[] runHasHead = new boolean[ runCount ];
+	private final long[] runTimes = new long[ runCount ];
+	private final long[] runCounts = new long[ runCount ];
+	private final double[] runValues = new double[ runCount ];
+	private boolean started = false;
+
+	private long time;
+	private long count;
+	private double value;
+
+	private void readHead( int i )
+	throws IOException
+		{
+		final DataInputStream in = ( DataInputStream )runInList.get( i );
+		try
+			{
+			runTimes[ i ] = in.readLong();
+			runCounts[ i ] = in.readLong();
+			runValues[ i ] = in.readDouble();
+			runHasHead[ i ] = true;
+			}
+		catch( EOFException e )
+			{
+			runHasHead[ i ] = false;
+			}
+		}
+
+	public boolean next()
+	throws IOException
+		{
+		if( !started )
+			{
+			for( int i = 0; i < runCount; ++i )
+				{
+				readHead( i );
+				}
+			started = true;
+			}
+
+			//find the smallest time point among the heads
+		boolean found = false;
+		long minTime = Long.MAX_VALUE;
+		if( memIndex < times.length )
+			{
+			minTime = times[ memIndex ];
+			found = true;
+			}
+		for( int i = 0; i < runCount; ++i )
+			{
+			if( runHasHead[ i ] && runTimes[ i ] <= minTime )
+				{
+				minTime = runTimes[ i ];
+				found = true;
+				}
+			}
+		if( !found )
+			{
+			return false;
+			}
+
+		long _count = 0;
+		double _value = 0;
+		boolean first = true;
+		if( memIndex < times.length && times[ memIndex ] == minTime )
+			{
+			_count = counts[ memIndex ];
+			_value = memValues[ memIndex ];
+			first = false;
+			++memIndex;
+			}
+		for( int i = 0; i < runCount; ++i )
+			{
+			if( runHasHead[ i ] && runTimes[ i ] == minTime )
+				{
+				_count += runCounts[ i ];
+				_value = first ? runValues[ i ] : merge( _value, runValues[ i ] );
+				first = false;
+				readHead( i );
+				}
+			}
+
+		time = minTime;
+		count = _count;
+		value = toOutputValue( _count, _value );
+		return true;
+		}
+
+	public long getTime()
+		{
+		return time;
+		}
+
+	public long getCount()
+		{
+		return count;
+		}
+
+	public double getValue()
+		{
+		return value;
+		}
+
+	public void close()
+		{
+		MSeriesAggregator.this.close();
+		}
+	};
+}
+//--------------------------------------------------------------------------------
+public void close()
+{
+for( int i = 0; i < runInList.size(); ++i )
+	{
+	try
+		{
+		( ( DataInputStream )runInList.get( i ) ).close();
+		}
+	catch( IOException e )
+		{
+		LOG.info( e );
+		}
+	}
+runInList.clear();
+
+for( int i = 0; i < runFileList.size(); ++i )
+	{
+	( ( File )runFileList.get( i ) ).delete();
+	}
+runFileList.clear();
+}
+//--------------------------------------------------------------------------------
+}
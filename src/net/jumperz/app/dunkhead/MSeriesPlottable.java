@@ -0,0 +1,93 @@
+package net.jumperz.app.dunkhead;
+
+import net.jumperz.ext.org.jrobin.graph.Plottable;
+
+/*
+ * Graph source over the aggregated time points of one key, used instead of an RRD file.
+ *
+ * Reads the values the same way the GAUGE datasource of MRrdUtil.createStandardRrdFile() would:
+ * a time point holds the interval ending at it, intervals are averaged to the resolution
+ * of the graph, and gaps longer than the heartbeat are unknown ( NaN ).
+ */
+public class MSeriesPlottable
+extends Plottable
+{
+private final long[] times; //ms
+private final double[] values;
+private final int size;
+private final long step; //sec
+private final long heartbeat; //sec
+private long lastTimestamp = Long.MIN_VALUE;
+//--------------------------------------------------------------------------------
+public MSeriesPlottable( long[] times, double[] values, int size, long step, long heartbeat )
+{
+this.times = times;
+this.values = values;
+this.size = size;
+this.step = step;
+this.heartbeat = heartbeat;
+}
+//--------------------------------------------------------------------------------
+private long getSeconds( int index )
+{
+return ( times[ index ] + 500L ) / 1000L;
+}
+//--------------------------------------------------------------------------------
+/*
+ * Index of the first time point after timestamp
+ */
+private int search( long timestamp )
+{
+int low = 0;
+int high = size;
+while( low < high )
+	{
+	final int mid = ( low + high ) >>> 1;
+	if( getSeconds( mid ) <= timestamp )
+		{
+		low = mid + 1;
+		}
+	else
+		{
+		high = mid;
+		}
+	}
+return low;
+}
+//--------------------------------------------------------------------------------
+/*
+ * The value of the interval ( timestamp, timestamp + resolution ].
+ * The graph asks for the intervals in order, so the resolution is the distance between two calls.
+ */
+public double getValue( long timestamp )
+{
+final long resolution = ( timestamp > lastTimestamp && lastTimestamp != Long.MIN_VALUE ) ? timestamp - lastTimestamp : step;
+lastTimestamp = timestamp;
+
+final int first = search( timestamp );
+if( first >= size )
+	{
+	return Double.NaN;
+	}
+
+double sum = 0;
+int count = 0;
+for( int i = first; i < size && getSeconds( i ) <= timestamp + resolution; ++i )
+	{
+	sum += values[ i ];
+	++count;
+	}
+if( count > 0 )
+	{
+	return sum / count;
+	}
+
+	//no time point in the interval, covered by the next one unless the gap exceeds the heartbeat
+if( first > 0 && getSeconds( first ) - getSeconds( first - 1 ) <= heartbeat )
+	{
+	return values[ first ];
+	}
+return Double.NaN;
+}
+//--------------------------------------------------------------------------------
+}
@@ -0,0 +1,114 @@
+package net.jumperz.app.dunkhead;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.hadoop.mapred.Reporter;
+
+/*
+ * MSeries over values that arrive in time order ( see MTimeKey ).
+ * Consecutive values of the same time point are folded while streaming, so only one
+ * time point is held in memory.
+ */
+public class MSortedSeries
+implements MSeries, MConstants
+{
+private final Iterator<LongLongDoubleWritable> values;
+private final Reporter reporter;
+private final int type;
+private final long step;
+
+private boolean hasPending;
+private long pendingTime;
+private long pendingCount;
+private double pendingValue;
+private int index;
+
+private long time;
+private long count;
+private double value;
+//--------------------------------------------------------------------------------
+public MSortedSeries( Iterator<LongLongDoubleWritable> values, Reporter reporter, int type, long step )
+{
+this.values = values;
+this.reporter = reporter;
+this.type = type;
+this.step = step;
+}
+//--------------------------------------------------------------------------------
+private void readPending()
+{
+final LongLongDoubleWritable v = values.next();
+pendingTime = Util.getTimePoint( v.getTime(), step );
+pendingCount = v.getCount();
+pendingValue = v.getValue();
+if( type == TYPE_ID_AVERAGE )
+	{
+	pendingValue *= pendingCount;
+	}
+hasPending = true;
+
+++index;
+if( ( index % 10000 ) == 0 )
+	{
+	reporter.progress();
+	}
+}
+//--------------------------------------------------------------------------------
+public boolean next()
+throws IOException
+{
+if( !hasPending )
+	{
+	if( !values.hasNext() )
+		{
+		return false;
+		}
+	readPending();
+	}
+
+time = pendingTime;
+long _count = pendingCount;
+double _value = pendingValue;
+hasPending = false;
+while( values.hasNext() )
+	{
+	readPending();
+	if( pendingTime != time )
+		{
+		if( pendingTime < time )
+			{
+			throw new IOException( "values are not sorted by time : " + pendingTime + " < " + time );
+			}
+		break;
+		}
+	_count += pendingCount;
+	_value = MSeriesAggregator.merge( type, _value, pendingValue );
+	hasPending = false;
+	}
+
+count = _count;
+value = MSeriesAggregator.toOutputValue( type, _count, _value );
+return true;
+}
+//--------------------------------------------------------------------------------
+public long getTime()
+{
+return time;
+}
+//--------------------------------------------------------------------------------
+public long getCount()
+{
+return count;
+}
+//--------------------------------------------------------------------------------
+public double getValue()
+{
+return value;
+}
+//--------------------------------------------------------------------------------
+public void close()
+{
+}
+//--------------------------------------------------------------------------------
+}
@@ -0,0 +1,318 @@
+package net.jumperz.app.dunkhead;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.util.*;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+/*
+ * Directory that keeps the RRD of every key between runs, for incremental runs.
+ *
+ * "persist" : { "dir" : "hdfs:///user/dunkhead/state" }
+ *
+ * The manifest records the length of every input file processed so far. Main only submits the files that changed since,
+ * and a file that grew is only read from the recorded length ( see MOffsetInputFormat ).
+ * MReduce updates the stored RRD of a key with the new time points and emits the result as a <name>.rrd record ( see State ).
+ * The records are moved into the directory by commit() once the job has succeeded,
+ * so a failed or retried task never touches the stored RRDs.
+ */
+public class MStateStore
+{
+private static final Log LOG = LogFactory.getLog( MStateStore.class );
+
+public static final String STATE_SUFFIX = ".rrd";
+public static final String MANIFEST_NAME = "_processed";
+
+private final FileSystem fs;
+private final Path dir;
+private final Map<String, String> entries = new HashMap<String, String>(); //manifest entries of the paths returned by getNewPaths()
+//--------------------------------------------------------------------------------
+/*
+ * The stored state of a key :
+ * the number of records seen so far ( long ), which lets "threshold" apply to the whole history of the key,
+ * the last time point ( long time, long count, double value ) that is not in the RRD yet, and the RRD.
+ *
+ * The last time point is kept out of the RRD because the next run may have more records for it.
+ * Its value is the raw aggregate, the sum of the values for AVERAGE ( see MSeriesAggregator ).
+ * pendingCount is 0 if there is no such time point.
+ */
+public static class State
+{
+public final long count;
+public final long pendingTime;
+public final long pendingCount;
+public final double pendingValue;
+public final byte[] rrd;
+
+public State( long count, long pendingTime, long pendingCount, double pendingValue, byte[] rrd )
+{
+this.count = count;
+this.pendingTime = pendingTime;
+this.pendingCount = pendingCount;
+this.pendingValue = pendingValue;
+this.rrd = rrd;
+}
+//--------------------------------------------------------------------------------
+/*
+ * The value of the <name>.rrd record
+ */
+public MImage toImage()
+{
+final DataOutputBuffer buffer = new DataOutputBuffer( 32 + rrd.length );
+try
+	{
+	buffer.writeLong( count );
+	buffer.writeLong( pendingTime );
+	buffer.writeLong( pendingCount );
+	buffer.writeDouble( pendingValue );
+	buffer.write( rrd );
+	}
+catch( IOException e )
+	{
+	throw new RuntimeException( e );
+	}
+return new MImage( buffer.getData(), buffer.getLength() );
+}
+}
+//--------------------------------------------------------------------------------
+/*
+ * Returns null unless "persist" is configured
+ */
+public static MStateStore getInstance( Map confMap, Configuration conf )
+throws IOException
+{
+final Map persistMap = ( Map )confMap.get( "persist" );
+if( persistMap == null || persistMap.get( "dir" ) == null )
+	{
+	return null;
+	}
+return new MStateStore( persistMap.get( "dir" ) + "", conf );
+}
+//--------------------------------------------------------------------------------
+public MStateStore( String dirStr, Configuration conf )
+throws IOException
+{
+dir = new Path( dirStr );
+fs = FileSystem.get( URI.create( dirStr ), conf );
+}
+//--------------------------------------------------------------------------------
+/*
+ * Stable file name of the RRD of key. Unlike MReduce.toFileName() a long key is shortened by its digest
+ */
+public static String getStateName( String key )
+{
+String name = key.replaceAll( "/" , "-" ).replaceAll( ":" , "-" );
+if( name.length() > 70 )
+	{
+	try
+		{
+		final byte[] digest = MessageDigest.getInstance( "MD5" ).digest( key.getBytes( "UTF-8" ) );
+		final StringBuilder buf = new StringBuilder( name.substring( 0, 50 ) ).append( '_' );
+		for( int i = 0; i < digest.length; ++i )
+			{
+			buf.append( Character.forDigit( ( digest[ i ] >> 4 ) & 0x0F, 16 ) );
+			buf.append( Character.forDigit( digest[ i ] & 0x0F, 16 ) );
+			}
+		name = buf.toString();
+		}
+	catch( Exception e )
+		{
+		throw new RuntimeException( e );
+		}
+	}
+return name + STATE_SUFFIX;
+}
+//--------------------------------------------------------------------------------
+/*
+ * The stored state of key, or null if this is a new key
+ */
+public State read( String key )
+throws IOException
+{
+final Path path = new Path( dir, getStateName( key ) );
+if( !fs.exists( path ) )
+	{
+	return null;
+	}
+final DataInputStream in = fs.open( path );
+try
+	{
+	final long count = in.readLong();
+	final long pendingTime = in.readLong();
+	final long pendingCount = in.readLong();
+	final double pendingValue = in.readDouble();
+	return new State( count, pendingTime, pendingCount, pendingValue, IOUtils.toByteArray( in ) );
+	}
+finally
+	{
+	in.close();
+	}
+}
+//--------------------------------------------------------------------------------
+private static String getManifestEntry( Path path, FileStatus status )
+{
+return path.toString() + "\t" + status.getLen() + "\t" + status.getModificationTime();
+}
+//--------------------------------------------------------------------------------
+private static long getLength( String entry )
+{
+final int timeIndex = entry.lastIndexOf( '\t' );
+return Long.parseLong( entry.substring( entry.lastIndexOf( '\t', timeIndex - 1 ) + 1, timeIndex ) );
+}
+//--------------------------------------------------------------------------------
+/*
+ * The latest entry of each path
+ */
+private Map<String, String> readManifest()
+throws IOException
+{
+final Map<String, String> manifest = new TreeMap<String, String>();
+final Path path = new Path( dir, MANIFEST_NAME );
+if( !fs.exists( path ) )
+	{
+	return manifest;
+	}
+final BufferedReader reader = new BufferedReader( new InputStreamReader( fs.open( path ), "UTF-8" ) );
+try
+	{
+	String line;
+	while( ( line = reader.readLine() ) != null )
+		{
+		putLatestEntry( manifest, line );
+		}
+	}
+finally
+	{
+	reader.close();
+	}
+return manifest;
+}
+//--------------------------------------------------------------------------------
+/*
+ * The input files that changed since the previous run.
+ * ranges receives the byte range to read of each of them, from the recorded length if the file only grew.
+ * A file that shrank or was rewritten with the same length is read again as a whole
+ */
+public Path[] getNewPaths( Path[] paths, Map<String, long[]> ranges, Configuration conf )
+throws IOException
+{
+final Map<String, String> manifest = readManifest();
+final List<Path> newPathList = new ArrayList<Path>();
+int grown = 0;
+for( int i = 0; i < paths.length; ++i )
+	{
+	final FileSystem inputFs = paths[ i ].getFileSystem( conf );
+	final FileStatus status = inputFs.getFileStatus( paths[ i ] );
+	final String entry = getManifestEntry( paths[ i ], status );
+	final String stored = manifest.get( paths[ i ].toString() );
+	if( entry.equals( stored ) )
+		{
+		continue;
+		}
+	long offset = 0;
+	if( stored != null && getLength( stored ) < status.getLen() )
+		{
+		offset = getLength( stored );
+		++grown;
+		}
+	newPathList.add( paths[ i ] );
+	entries.put( paths[ i ].toString(), entry );
+	ranges.put( inputFs.makeQualified( paths[ i ] ).toString(), new long[]{ offset, status.getLen() } );
+	}
+LOG.info( newPathList.size() + " of " + paths.length + " input files are new or changed, " + grown + " of them are read from the previous length" );
+return ( Path[] )newPathList.toArray( new Path[ newPathList.size() ] );
+}
+//--------------------------------------------------------------------------------
+/*
+ * Moves the RRDs emitted by the job into the directory and records the input files as processed,
+ * with the length they had when getNewPaths() chose the range to read
+ */
+public void commit( Path outputPath, Path[] inputPaths, Configuration conf )
+throws IOException
+{
+fs.mkdirs( dir );
+final FileSystem outputFs = outputPath.getFileSystem( conf );
+final FileStatus[] statuses = outputFs.listStatus( outputPath );
+int count = 0;
+for( int i = 0; statuses != null && i < statuses.length; ++i )
+	{
+	final Path path = statuses[ i ].getPath();
+	if( !path.getName().endsWith( STATE_SUFFIX ) )
+		{
+		continue;
+		}
+	final Path target = new Path( dir, path.getName() );
+	fs.delete( target, false );
+	if( !fs.rename( path, target ) )
+		{
+		throw new IOException( "Failed to move " + path + " to " + target );
+		}
+	++count;
+	}
+
+	//one entry per file, so a file that is still growing does not add an entry every run
+final Map<String, String> manifest = readManifest();
+for( int i = 0; i < inputPaths.length; ++i )
+	{
+	final String entry = entries.get( inputPaths[ i ].toString() );
+	if( entry != null )
+		{
+		manifest.put( inputPaths[ i ].toString(), entry );
+		}
+	}
+final Path manifestPath = new Path( dir, MANIFEST_NAME );
+final Path tmpPath = new Path( dir, MANIFEST_NAME + ".tmp" );
+final OutputStream out = fs.create( tmpPath, true );
+try
+	{
+	final Iterator<String> q = manifest.values().iterator();
+	while( q.hasNext() )
+		{
+		out.write( ( q.next() + "\n" ).getBytes( "UTF-8" ) );
+		}
+	}
+finally
+	{
+	out.close();
+	}
+fs.delete( manifestPath, false );
+fs.rename( tmpPath, manifestPath );
+LOG.info( count + " RRDs stored in " + dir + ", " + manifest.size() + " input files processed so far" );
+}
+//--------------------------------------------------------------------------------
+/*
+ * Keeps the entry of the latest modification time for each path of the manifest
+ */
+private static void putLatestEntry( Map<String, String> manifest, String entry )
+{
+final int timeIndex = entry.lastIndexOf( '\t' );
+final int lengthIndex = entry.lastIndexOf( '\t', timeIndex - 1 );
+if( lengthIndex < 0 )
+	{
+	return;
+	}
+final String path = entry.substring( 0, lengthIndex );
+final String current = manifest.get( path );
+if( current == null
+ || Long.parseLong( current.substring( current.lastIndexOf( '\t' ) + 1 ) ) <= Long.parseLong( entry.substring( timeIndex + 1 ) )
+  )
+	{
+	manifest.put( path, entry );
+	}
+}
+//--------------------------------------------------------------------------------
+}
@@ -0,0 +1,247 @@
+package net.jumperz.app.dunkhead;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.*;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+
+/*
+ * First / last timestamp of every input file seen by a previous run, used by Main to skip
+ * the files that are entirely outside the MTimeWindow before the splits are created.
+ *
+ * "timeindex" : { "dir" : "hdfs:///user/dunkhead/index" }
+ *
+ * Each map task writes the time range of its split as a side file ( see writeRange() ),
+ * and update() folds them into the index file once the job has succeeded.
+ * An entry is only used while the length and the modification time of the file are unchanged.
+ */
+public class MTimeIndex
+{
+private static final Log LOG = LogFactory.getLog( MTimeIndex.class );
+
+public static final String JOB_PROPERTY = "dunkhead.timeindex";
+public static final String INDEX_NAME = "_timeindex";
+public static final String RANGE_SUFFIX = ".range";
+
+private final FileSystem fs;
+private final Path dir;
+//--------------------------------------------------------------------------------
+/*
+ * Returns null unless "timeindex" is configured
+ */
+public static MTimeIndex getInstance( Map confMap, Configuration conf )
+throws IOException
+{
+final Map indexMap = ( Map )confMap.get( "timeindex" );
+if( indexMap == null || indexMap.get( "dir" ) == null )
+	{
+	return null;
+	}
+return new MTimeIndex( indexMap.get( "dir" ) + "", conf );
+}
+//--------------------------------------------------------------------------------
+public MTimeIndex( String dirStr, Configuration conf )
+throws IOException
+{
+dir = new Path( dirStr );
+fs = FileSystem.get( URI.create( dirStr ), conf );
+}
+//--------------------------------------------------------------------------------
+/*
+ * Called by a map task with the time range of its split. Nothing is written outside of a task
+ */
+public static void writeRange( JobConf job, long first, long last )
+throws IOException
+{
+final String file = job.get( "map.input.file" );
+final Path workPath = FileOutputFormat.getWorkOutputPath( job );
+if( file == null || workPath == null )
+	{
+	return;
+	}
+final Path path = new Path( workPath, "map-" + job.getInt( "mapred.task.partition", 0 ) + RANGE_SUFFIX );
+final OutputStream out = path.getFileSystem( job ).create( path, true );
+try
+	{
+	out.write( ( file + "\t" + first + "\t" + last + "\n" ).getBytes( "UTF-8" ) );
+	}
+finally
+	{
+	out.close();
+	}
+}
+//--------------------------------------------------------------------------------
+private static String getFileKey( Path path, Configuration conf )
+throws IOException
+{
+final FileStatus status = path.getFileSystem( conf ).getFileStatus( path );
+return path.toString() + "\t" + status.getLen() + "\t" + status.getModificationTime();
+}
+//--------------------------------------------------------------------------------
+/*
+ * file key -> { first, last }
+ */
+private Map<String, long[]> readIndex()
+throws IOException
+{
+final Map<String, long[]> index = new HashMap<String, long[]>();
+final Path path = new Path( dir, INDEX_NAME );
+if( !fs.exists( path ) )
+	{
+	return index;
+	}
+final BufferedReader reader = new BufferedReader( new InputStreamReader( fs.open( path ), "UTF-8" ) );
+try
+	{
+	String line;
+	while( ( line = reader.readLine() ) != null )
+		{
+		final String[] array = line.split( "\t" );
+		if( array.length == 5 )
+			{
+			index.put( array[ 0 ] + "\t" + array[ 1 ] + "\t" + array[ 2 ], new long[]{ Long.parseLong( array[ 3 ] ), Long.parseLong( array[ 4 ] ) } );
+			}
+		}
+	}
+finally
+	{
+	reader.close();
+	}
+return index;
+}
+//--------------------------------------------------------------------------------
+/*
+ * The input files that may have a time in window. Files not in the index are always kept
+ */
+public Path[] prune( Path[] paths, MTimeWindow window, Configuration conf )
+throws IOException
+{
+final Map<String, long[]> index = readIndex();
+final List<Path> pathList = new ArrayList<Path>();
+for( int i = 0; i < paths.length; ++i )
+	{
+	final long[] range = index.get( getFileKey( paths[ i ], conf ) );
+	if( range == null || window.overlaps( range[ 0 ], range[ 1 ] ) )
+		{
+		pathList.add( paths[ i ] );
+		}
+	}
+LOG.info( ( paths.length - pathList.size() ) + " of " + paths.length + " input files are outside of " + window );
+return ( Path[] )pathList.toArray( new Path[ pathList.size() ] );
+}
+//--------------------------------------------------------------------------------
+/*
+ * Folds the ranges written by the map tasks into the index and deletes them.
+ * A file without any timestamp gets an empty range, so it is skipped from now on
+ */
+public void update( Path outputPath, Path[] inputPaths, Configuration conf )
+throws IOException
+{
+final Map<String, long[]> rangeMap = new HashMap<String, long[]>();
+final FileSystem outputFs = outputPath.getFileSystem( conf );
+final FileStatus[] statuses = outputFs.listStatus( outputPath );
+for( int i = 0; statuses != null && i < statuses.length; ++i )
+	{
+	final Path path = statuses[ i ].getPath();
+	if( !path.getName().endsWith( RANGE_SUFFIX ) )
+		{
+		continue;
+		}
+	final BufferedReader reader = new BufferedReader( new InputStreamReader( outputFs.open( path ), "UTF-8" ) );
+	try
+		{
+		final String[] array = reader.readLine().split( "\t" );
+		final String file = new Path( array[ 0 ] ).toString();
+		final long first = Long.parseLong( array[ 1 ] );
+		final long last = Long.parseLong( array[ 2 ] );
+		final long[] range = rangeMap.get( file );
+		if( range == null )
+			{
+			rangeMap.put( file, new long[]{ first, last } );
+			}
+		else
+			{
+			range[ 0 ] = Math.min( range[ 0 ], first );
+			range[ 1 ] = Math.max( range[ 1 ], last );
+			}
+		}
+	finally
+		{
+		reader.close();
+		}
+	outputFs.delete( path, false );
+	}
+
+final Map<String, long[]> index = readIndex();
+
+	//one entry per file, so a file that is still growing does not add an entry every run
+final Map<String, String> fileKeyMap = new HashMap<String, String>();
+final Iterator<String> p = index.keySet().iterator();
+while( p.hasNext() )
+	{
+	putLatestKey( fileKeyMap, p.next() );
+	}
+for( int i = 0; i < inputPaths.length; ++i )
+	{
+	long[] range = rangeMap.get( inputPaths[ i ].toString() );
+	if( range == null )
+		{
+		range = new long[]{ Long.MAX_VALUE, Long.MIN_VALUE };
+		}
+	final String fileKey = getFileKey( inputPaths[ i ], conf );
+	fileKeyMap.put( inputPaths[ i ].toString(), fileKey );
+	index.put( fileKey, range );
+	}
+index.keySet().retainAll( new HashSet<String>( fileKeyMap.values() ) );
+
+fs.mkdirs( dir );
+final Path indexPath = new Path( dir, INDEX_NAME );
+final Path tmpPath = new Path( dir, INDEX_NAME + ".tmp" );
+final OutputStream out = fs.create( tmpPath, true );
+try
+	{
+	final Iterator<Map.Entry<String, long[]>> q = index.entrySet().iterator();
+	while( q.hasNext() )
+		{
+		final Map.Entry<String, long[]> entry = q.next();
+		out.write( ( entry.getKey() + "\t" + entry.getValue()[ 0 ] + "\t" + entry.getValue()[ 1 ] + "\n" ).getBytes( "UTF-8" ) );
+		}
+	}
+finally
+	{
+	out.close();
+	}
+fs.delete( indexPath, false );
+fs.rename( tmpPath, indexPath );
+LOG.info( rangeMap.size() + " input files indexed, " + index.size() + " in " + indexPath );
+}
+//--------------------------------------------------------------------------------
+/*
+ * Keeps the file key of the latest modification time for each path of the index
+ */
+private static void putLatestKey( Map<String, String> fileKeyMap, String fileKey )
+{
+final int timeIndex = fileKey.lastIndexOf( '\t' );
+final int lengthIndex = fileKey.lastIndexOf( '\t', timeIndex - 1 );
+final String path = fileKey.substring( 0, lengthIndex );
+final String current = fileKeyMap.get( path );
+if( current == null
+ || Long.parseLong( current.substring( current.lastIndexOf( '\t' ) + 1 ) ) <= Long.parseLong( fileKey.substring( timeIndex + 1 ) )
+  )
+	{
+	fileKeyMap.put( path, fileKey );
+	}
+}
+//--------------------------------------------------------------------------------
+}
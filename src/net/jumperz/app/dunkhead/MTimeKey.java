@@ -0,0 +1,124 @@
+package net.jumperz.app.dunkhead;
+
+import java.io.*;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/*
+ * Map output key : metric key + time point.
+ * The metric key is the binary form written by MKeyCodec, serialized with a vint length prefix.
+ * Sorting uses both parts, partitioning ( MKeyPartitioner ) and grouping ( GroupComparator ) use
+ * only the metric key, so each reduce() call receives the values of one metric in time order.
+ */
+public class MTimeKey implements WritableComparable {
+  private final BytesWritable name = new BytesWritable();
+  private long time;
+
+  public MTimeKey() {}
+
+  public MTimeKey( BytesWritable name, long time ) { set( name, time ); }
+
+  public void set( BytesWritable name, long time ) { this.name.set( name ); this.time = time; }
+
+  public BytesWritable getName() { return name; }
+  public long getTime() { return time; }
+
+  public void readFields(DataInput in) throws IOException {
+    int length = WritableUtils.readVInt(in);
+    name.setSize(0);
+    name.setSize(length);
+    in.readFully(name.getBytes(), 0, length);
+    time = in.readLong();
+  }
+
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, name.getLength());
+    out.write(name.getBytes(), 0, name.getLength());
+    out.writeLong(time);
+  }
+
+  public boolean equals(Object o) {
+    if (!(o instanceof MTimeKey))
+      return false;
+    MTimeKey other = (MTimeKey)o;
+    return ( this.time == other.time && this.name.equals( other.name ) );
+  }
+
+  public int hashCode() {
+    return name.hashCode();
+  }
+
+  public int compareTo(Object o) {
+    MTimeKey other = (MTimeKey)o;
+    int c = name.compareTo( other.name );
+    if (c != 0)
+      return c;
+    return (time<other.time ? -1 : (time==other.time ? 0 : 1));
+  }
+
+  public String toString() {
+    return name + ":" + time;
+  }
+
+  /** Length of the serialized name, including its vint prefix. */
+  static int getNameLength(byte[] b, int s) throws IOException {
+    return WritableUtils.decodeVIntSize(b[s]) + WritableComparator.readVInt(b, s);
+  }
+
+  /** Compares two serialized names the same way BytesWritable does. */
+  static int compareNames(byte[] b1, int s1, int n1, byte[] b2, int s2, int n2) {
+    int p1 = WritableUtils.decodeVIntSize(b1[s1]);
+    int p2 = WritableUtils.decodeVIntSize(b2[s2]);
+    return WritableComparator.compareBytes(b1, s1 + p1, n1 - p1, b2, s2 + p2, n2 - p2);
+  }
+
+  /** Sort comparator : metric key, then time point. */
+  public static class Comparator extends WritableComparator {
+    public Comparator() {
+      super(MTimeKey.class);
+    }
+
+    public int compare(byte[] b1, int s1, int l1,
+                       byte[] b2, int s2, int l2) {
+      try {
+        int n1 = getNameLength(b1, s1);
+        int n2 = getNameLength(b2, s2);
+        int c = compareNames(b1, s1, n1, b2, s2, n2);
+        if (c != 0)
+          return c;
+        long thisValue = readLong(b1, s1 + n1);
+        long thatValue = readLong(b2, s2 + n2);
+        return (thisValue<thatValue ? -1 : (thisValue==thatValue ? 0 : 1));
+      } catch (IOException e) {
+        throw new IllegalArgumentException(e);
+      }
+    }
+  }
+
+  /** Grouping comparator : metric key only. */
+  public static class GroupComparator extends WritableComparator {
+    public GroupComparator() {
+      super(MTimeKey.class);
+    }
+
+    public int compare(byte[] b1, int s1, int l1,
+                       byte[] b2, int s2, int l2) {
+      try {
+        return compareNames(b1, s1, getNameLength(b1, s1), b2, s2, getNameLength(b2, s2));
+      } catch (IOException e) {
+        throw new IllegalArgumentException(e);
+      }
+    }
+
+    public int compare(WritableComparable a, WritableComparable b) {
+      return ((MTimeKey)a).name.compareTo(((MTimeKey)b).name);
+    }
+  }
+
+  static {                                        // register this comparator
+    WritableComparator.define(MTimeKey.class, new Comparator());
+  }
+}
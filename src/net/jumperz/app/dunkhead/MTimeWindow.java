@@ -0,0 +1,112 @@
+package net.jumperz.app.dunkhead;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+
+import org.apache.hadoop.mapred.JobConf;
+
+/*
+ * Time window of the graphs.
+ *
+ * "window" : { "start" : "2013-08-01 00:00:00", "end" : "2013-08-02 00:00:00" }
+ * "window" : { "last" : 21600 }
+ *
+ * start / end are local time, or epoch seconds. Either may be omitted.
+ * last ( seconds ) is resolved by Main when the job is submitted and passed to the tasks
+ * in the "dunkhead.window" job property, so that every task uses the same window.
+ */
+public class MTimeWindow
+{
+public static final String JOB_PROPERTY = "dunkhead.window";
+public static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+private final long start; //ms, inclusive
+private final long end; //ms, exclusive
+//--------------------------------------------------------------------------------
+public MTimeWindow( long start, long end )
+{
+this.start = start;
+this.end = end;
+}
+//--------------------------------------------------------------------------------
+/*
+ * Returns null unless "window" is configured
+ */
+public static MTimeWindow getInstance( Map confMap )
+throws ParseException
+{
+final Map windowMap = ( Map )confMap.get( "window" );
+if( windowMap == null )
+	{
+	return null;
+	}
+long start = Long.MIN_VALUE;
+long end = Long.MAX_VALUE;
+if( windowMap.containsKey( "last" ) )
+	{
+	end = System.currentTimeMillis();
+	start = end - Long.parseLong( windowMap.get( "last" ) + "" ) * 1000;
+	}
+if( windowMap.containsKey( "start" ) )
+	{
+	start = parse( windowMap.get( "start" ) + "" );
+	}
+if( windowMap.containsKey( "end" ) )
+	{
+	end = parse( windowMap.get( "end" ) + "" );
+	}
+return new MTimeWindow( start, end );
+}
+//--------------------------------------------------------------------------------
+private static long parse( String s )
+throws ParseException
+{
+if( s.matches( "[0-9]+" ) )
+	{
+	return Long.parseLong( s ) * 1000;
+	}
+return ( new SimpleDateFormat( DATE_FORMAT ) ).parse( s ).getTime();
+}
+//--------------------------------------------------------------------------------
+/*
+ * Returns null if Main did not set a window
+ */
+public static MTimeWindow getInstance( JobConf job )
+{
+final String value = job.get( JOB_PROPERTY );
+if( value == null )
+	{
+	return null;
+	}
+final String[] array = value.split( "," );
+return new MTimeWindow( Long.parseLong( array[ 0 ] ), Long.parseLong( array[ 1 ] ) );
+}
+//--------------------------------------------------------------------------------
+public void set( JobConf job )
+{
+job.set( JOB_PROPERTY, start + "," + end );
+}
+//--------------------------------------------------------------------------------
+public boolean contains( long time )
+{
+return time >= start && time < end;
+}
+//--------------------------------------------------------------------------------
+/*
+ * True if [ first, last ] has a time in the window
+ */
+public boolean overlaps( long first, long last )
+{
+return first < end && last >= start;
+}
+//--------------------------------------------------------------------------------
+public String toString()
+{
+final SimpleDateFormat df = new SimpleDateFormat( DATE_FORMAT );
+return "[ " + ( start == Long.MIN_VALUE ? "-" : df.format( new Date( start ) ) )
+     + " , " + ( end == Long.MAX_VALUE ? "-" : df.format( new Date( end ) ) ) + " )";
+}
+//--------------------------------------------------------------------------------
+}
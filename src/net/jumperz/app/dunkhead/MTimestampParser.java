@@ -0,0 +1,453 @@
+package net.jumperz.app.dunkhead;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/*
+ * Parses the "datetime" part of a log line directly from the line's characters.
+ *
+ * Apache/CLF ( "dd/MMM/yyyy:HH:mm:ss Z" ), ISO-8601 ( DF_ISO8601 ) and unixtime are parsed
+ * without allocation. Consecutive lines almost always share the same second, so the last
+ * parsed second is remembered and reused. Any other format, and CLF input the fast path
+ * does not understand, goes to SimpleDateFormat.
+ *
+ * Not thread safe. Use one instance per task.
+ */
+public class MTimestampParser
+implements MConstants
+{
+public static final String CLF_FORMAT = "dd/MMM/yyyy:HH:mm:ss Z";
+
+private static final int FORMAT_OTHER = 0;
+private static final int FORMAT_CLF = 1;
+private static final int FORMAT_ISO8601 = 2;
+private static final int FORMAT_UNIX_SECOND = 3;
+private static final int FORMAT_UNIX_MILLI = 4;
+
+private static final long NOT_PARSED = Long.MIN_VALUE;
+
+private static final String[] MONTHS = { "jan", "feb", "mar", "apr", "may", "jun", "jul", "aug", "sep", "oct", "nov", "dec" };
+
+private final int format;
+private final DateFormat df;
+private final TimeZone timeZone = TimeZone.getDefault();
+
+	//the last parsed second
+private final char[] lastKey = new char[ 64 ];
+private int lastKeyLength = -1;
+private long lastMillis;
+//--------------------------------------------------------------------------------
+public MTimestampParser( String dfStr )
+{
+if( dfStr.equalsIgnoreCase( DF_UNIX_MILLI ) )
+	{
+	format = FORMAT_UNIX_MILLI;
+	df = null;
+	}
+else if( dfStr.equalsIgnoreCase( DF_UNIX_SECOND ) )
+	{
+	format = FORMAT_UNIX_SECOND;
+	df = null;
+	}
+else if( dfStr.equalsIgnoreCase( DF_ISO8601 ) )
+	{
+	format = FORMAT_ISO8601;
+	df = null;
+	}
+else if( dfStr.equals( CLF_FORMAT ) )
+	{
+	format = FORMAT_CLF;
+	df = new SimpleDateFormat( dfStr, Locale.ENGLISH );
+	}
+else
+	{
+	format = FORMAT_OTHER;
+	df = new SimpleDateFormat( dfStr, Locale.ENGLISH );
+	}
+}
+//--------------------------------------------------------------------------------
+public long parse( CharSequence s )
+throws ParseException
+{
+return parse( s, 0, s.length() );
+}
+//--------------------------------------------------------------------------------
+public long parse( CharSequence s, int start, int end )
+throws ParseException
+{
+long millis = NOT_PARSED;
+switch( format )
+	{
+	case FORMAT_CLF:
+		millis = parseClf( s, start, end );
+		break;
+	case FORMAT_ISO8601:
+		millis = parseIso8601( s, start, end );
+		break;
+	case FORMAT_UNIX_SECOND:
+		millis = parseUnix( s, start, end, 1000L );
+		break;
+	case FORMAT_UNIX_MILLI:
+		millis = parseUnix( s, start, end, 1L );
+		break;
+	}
+
+if( millis != NOT_PARSED )
+	{
+	return millis;
+	}
+if( df == null )
+	{
+	throw new ParseException( "Unparseable date: \"" + s.subSequence( start, end ) + "\"", 0 );
+	}
+return df.parse( s.subSequence( start, end ).toString() ).getTime();
+}
+//--------------------------------------------------------------------------------
+private boolean isLast( CharSequence s, int start, int length )
+{
+if( length != lastKeyLength )
+	{
+	return false;
+	}
+for( int i = length - 1; i >= 0; --i )
+	{
+	if( lastKey[ i ] != s.charAt( start + i ) )
+		{
+		return false;
+		}
+	}
+return true;
+}
+//--------------------------------------------------------------------------------
+private void setLast( CharSequence s, int start, int length, long millis )
+{
+if( length > lastKey.length )
+	{
+	lastKeyLength = -1;
+	return;
+	}
+for( int i = 0; i < length; ++i )
+	{
+	lastKey[ i ] = s.charAt( start + i );
+	}
+lastKeyLength = length;
+lastMillis = millis;
+}
+//--------------------------------------------------------------------------------
+private static int digits( CharSequence s, int pos, int count )
+{
+int n = 0;
+for( int i = 0; i < count; ++i )
+	{
+	final char c = s.charAt( pos + i );
+	if( c < '0' || c > '9' )
+		{
+		return -1;
+		}
+	n = n * 10 + ( c - '0' );
+	}
+return n;
+}
+//--------------------------------------------------------------------------------
+private static int month( CharSequence s, int pos )
+{
+final char c0 = ( char )( s.charAt( pos     ) | 0x20 );
+final char c1 = ( char )( s.charAt( pos + 1 ) | 0x20 );
+final char c2 = ( char )( s.charAt( pos + 2 ) | 0x20 );
+for( int i = 0; i < MONTHS.length; ++i )
+	{
+	final String m = MONTHS[ i ];
+	if( m.charAt( 0 ) == c0 && m.charAt( 1 ) == c1 && m.charAt( 2 ) == c2 )
+		{
+		return i + 1;
+		}
+	}
+return -1;
+}
+//--------------------------------------------------------------------------------
+/*
+ * Days since 1970-01-01 of a proleptic Gregorian date
+ */
+static long daysFromCivil( int year, int month, int day )
+{
+final long y = ( month <= 2 ) ? year - 1 : year;
+final long era = ( y >= 0 ? y : y - 399 ) / 400;
+final long yoe = y - era * 400;
+final long doy = ( 153 * ( month + ( month > 2 ? -3 : 9 ) ) + 2 ) / 5 + day - 1;
+final long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+return era * 146097 + doe - 719468;
+}
+//--------------------------------------------------------------------------------
+private static long toMillis( int year, int month, int day, int hour, int minute, int second )
+{
+if( month < 1 || month > 12
+ || day < 1 || day > 31
+ || hour < 0 || hour > 23
+ || minute < 0 || minute > 59
+ || second < 0 || second > 59
+  )
+	{
+	return NOT_PARSED;
+	}
+return ( ( daysFromCivil( year, month, day ) * 24L + hour ) * 60L + minute ) * 60000L + second * 1000L;
+}
+//--------------------------------------------------------------------------------
+/*
+ * 10/Oct/2000:13:55:36 -0700
+ */
+private long parseClf( CharSequence s, int start, int end )
+{
+final int length = end - start;
+if( length != 26 )
+	{
+	return NOT_PARSED;
+	}
+if( isLast( s, start, length ) )
+	{
+	return lastMillis;
+	}
+if( s.charAt( start + 2 ) != '/'
+ || s.charAt( start + 6 ) != '/'
+ || s.charAt( start + 11 ) != ':'
+ || s.charAt( start + 14 ) != ':'
+ || s.charAt( start + 17 ) != ':'
+ || s.charAt( start + 20 ) != ' '
+  )
+	{
+	return NOT_PARSED;
+	}
+final int day		= digits( s, start, 2 );
+final int month		= month( s, start + 3 );
+final int year		= digits( s, start + 7, 4 );
+final int hour		= digits( s, start + 12, 2 );
+final int minute	= digits( s, start + 15, 2 );
+final int second	= digits( s, start + 18, 2 );
+final char sign		= s.charAt( start + 21 );
+final int zoneHour	= digits( s, start + 22, 2 );
+final int zoneMinute	= digits( s, start + 24, 2 );
+if( year < 0 || zoneHour < 0 || zoneMinute < 0 || ( sign != '+' && sign != '-' ) )
+	{
+	return NOT_PARSED;
+	}
+long millis = toMillis( year, month, day, hour, minute, second );
+if( millis == NOT_PARSED )
+	{
+	return NOT_PARSED;
+	}
+final long offset = ( zoneHour * 60L + zoneMinute ) * 60000L;
+millis = ( sign == '+' ) ? millis - offset : millis + offset;
+
+setLast( s, start, length, millis );
+return millis;
+}
+//--------------------------------------------------------------------------------
+/*
+ * 2013-08-01T12:34:56[.sss][Z|+09:00|+0900|+09]
+ * The 'T' may be a space. Without a zone the default time zone is used.
+ */
+private long parseIso8601( CharSequence s, int start, int end )
+{
+final int length = end - start;
+if( length < 19 )
+	{
+	return NOT_PARSED;
+	}
+
+	//fraction of a second
+int pos = start + 19;
+int fraction = 0;
+int fractionDigits = 0;
+if( pos < end && ( s.charAt( pos ) == '.' || s.charAt( pos ) == ',' ) )
+	{
+	++pos;
+	while( pos < end && s.charAt( pos ) >= '0' && s.charAt( pos ) <= '9' )
+		{
+		if( fractionDigits < 3 )
+			{
+			fraction = fraction * 10 + ( s.charAt( pos ) - '0' );
+			++fractionDigits;
+			}
+		++pos;
+		}
+	if( fractionDigits == 0 )
+		{
+		return NOT_PARSED;
+		}
+	for( int i = fractionDigits; i < 3; ++i )
+		{
+		fraction *= 10;
+		}
+	}
+final int zoneStart = pos;
+
+	//the second is the date time part and the zone, without the fraction
+if( isLastIso( s, start, zoneStart, end ) )
+	{
+	return lastMillis + fraction;
+	}
+
+final char t = s.charAt( start + 10 );
+if( s.charAt( start + 4 ) != '-'
+ || s.charAt( start + 7 ) != '-'
+ || ( t != 'T' && t != 't' && t != ' ' )
+ || s.charAt( start + 13 ) != ':'
+ || s.charAt( start + 16 ) != ':'
+  )
+	{
+	return NOT_PARSED;
+	}
+final int year		= digits( s, start, 4 );
+final int month		= digits( s, start + 5, 2 );
+final int day		= digits( s, start + 8, 2 );
+final int hour		= digits( s, start + 11, 2 );
+final int minute	= digits( s, start + 14, 2 );
+final int second	= digits( s, start + 17, 2 );
+if( year < 0 )
+	{
+	return NOT_PARSED;
+	}
+long millis = toMillis( year, month, day, hour, minute, second );
+if( millis == NOT_PARSED )
+	{
+	return NOT_PARSED;
+	}
+
+final int zoneLength = end - zoneStart;
+if( zoneLength == 0 )
+	{
+	millis -= timeZone.getOffset( millis - timeZone.getOffset( millis ) );
+	}
+else if( zoneLength == 1 && ( s.charAt( zoneStart ) == 'Z' || s.charAt( zoneStart ) == 'z' ) )
+	{
+	}
+else
+	{
+	final char sign = s.charAt( zoneStart );
+	int zoneHour = -1;
+	int zoneMinute = 0;
+	if( zoneLength == 3 )
+		{
+		zoneHour = digits( s, zoneStart + 1, 2 );
+		}
+	else if( zoneLength == 5 )
+		{
+		zoneHour = digits( s, zoneStart + 1, 2 );
+		zoneMinute = digits( s, zoneStart + 3, 2 );
+		}
+	else if( zoneLength == 6 && s.charAt( zoneStart + 3 ) == ':' )
+		{
+		zoneHour = digits( s, zoneStart + 1, 2 );
+		zoneMinute = digits( s, zoneStart + 4, 2 );
+		}
+	if( zoneHour < 0 || zoneMinute < 0 || ( sign != '+' && sign != '-' ) )
+		{
+		return NOT_PARSED;
+		}
+	final long offset = ( zoneHour * 60L + zoneMinute ) * 60000L;
+	millis = ( sign == '+' ) ? millis - offset : millis + offset;
+	}
+
+setLastIso( s, start, zoneStart, end, millis );
+return millis + fraction;
+}
+//--------------------------------------------------------------------------------
+private boolean isLastIso( CharSequence s, int start, int zoneStart, int end )
+{
+if( lastKeyLength != 19 + ( end - zoneStart ) )
+	{
+	return false;
+	}
+for( int i = 0; i < 19; ++i )
+	{
+	if( lastKey[ i ] != s.charAt( start + i ) )
+		{
+		return false;
+		}
+	}
+for( int i = zoneStart; i < end; ++i )
+	{
+	if( lastKey[ 19 + i - zoneStart ] != s.charAt( i ) )
+		{
+		return false;
+		}
+	}
+return true;
+}
+//--------------------------------------------------------------------------------
+private void setLastIso( CharSequence s, int start, int zoneStart, int end, long millis )
+{
+final int length = 19 + ( end - zoneStart );
+if( length > lastKey.length )
+	{
+	lastKeyLength = -1;
+	return;
+	}
+for( int i = 0; i < 19; ++i )
+	{
+	lastKey[ i ] = s.charAt( start + i );
+	}
+for( int i = zoneStart; i < end; ++i )
+	{
+	lastKey[ 19 + i - zoneStart ] = s.charAt( i );
+	}
+lastKeyLength = length;
+lastMillis = millis;
+}
+//--------------------------------------------------------------------------------
+/*
+ * digits with an optional fraction, multiplied by unit ( 1000 for seconds, 1 for milliseconds )
+ */
+private static long parseUnix( CharSequence s, int start, int end, long unit )
+{
+int pos = start;
+boolean negative = false;
+if( pos < end && s.charAt( pos ) == '-' )
+	{
+	negative = true;
+	++pos;
+	}
+if( pos == end )
+	{
+	return NOT_PARSED;
+	}
+
+long n = 0;
+int digitCount = 0;
+while( pos < end && s.charAt( pos ) >= '0' && s.charAt( pos ) <= '9' )
+	{
+	if( digitCount == 18 )
+		{
+		return NOT_PARSED;
+		}
+	n = n * 10 + ( s.charAt( pos ) - '0' );
+	++digitCount;
+	++pos;
+	}
+if( digitCount == 0 || n > Long.MAX_VALUE / unit )
+	{
+	return NOT_PARSED;
+	}
+n *= unit;
+
+if( pos < end && s.charAt( pos ) == '.' )
+	{
+	++pos;
+	long scale = unit;
+	while( pos < end && s.charAt( pos ) >= '0' && s.charAt( pos ) <= '9' )
+		{
+		scale /= 10;
+		n += ( s.charAt( pos ) - '0' ) * scale;
+		++pos;
+		}
+	}
+if( pos != end )
+	{
+	return NOT_PARSED;
+	}
+return negative ? -n : n;
+}
+//--------------------------------------------------------------------------------
+}
@@ -1,23 +1,37 @@
 package net.jumperz.app.dunkhead;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 
 import java.net.URI;
 import net.arnx.jsonic.JSON;
+import net.jumperz.util.MCompilationException;
+import net.jumperz.util.MCompiler;
+import net.jumperz.util.MEvalDoubleBase;
+import net.jumperz.util.MExpression;
+import net.jumperz.util.MRegEx;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.filecache.DistributedCache;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.FileInputFormat;
@@ -49,12 +63,16 @@ JobConf conf = new JobConf( Main.class );
 conf.setJobName( "DunkHead" );
 
 parseConf( conf,  args[ 2 ] );
+precompileEvals( conf );
 
-conf.setMapOutputKeyClass( Text.class );
-conf.setMapOutputValueClass( LongLongDoubleWritable.class );
+conf.setMapOutputKeyClass( MTimeKey.class );
+conf.setMapOutputValueClass( VLongLongDoubleWritable.class );
+conf.setOutputKeyComparatorClass( MTimeKey.Comparator.class );
+conf.setPartitionerClass( MKeyPartitioner.class );
+conf.setOutputValueGroupingComparator( MTimeKey.GroupComparator.class );
 
 conf.setOutputKeyClass(	Text.class );
-conf.setOutputValueClass( BytesWritable.class );
+conf.setOutputValueClass( MImage.class );
 
 conf.setMapperClass(	MMap.class );
 
@@ -81,18 +99,137 @@ FileOutputFormat.setOutputPath(	conf, new Path( args[ 1 ] ) );
 
 //FileInputFormat.setInputPaths(	conf, new Path( args[ 0 ] ) );
 
-processInputPath( conf, args[ 0 ] );
+final MStateStore stateStore = MStateStore.getInstance( confMap, conf );
+final MTimeWindow window = MTimeWindow.getInstance( confMap );
+final MTimeIndex timeIndex = MTimeIndex.getInstance( confMap, conf );
+final Path[] inputPaths = processInputPath( conf, args[ 0 ], stateStore, window, timeIndex );
+if( inputPaths.length == 0 )
+	{
+	LOG.info( "No input file to process." );
+	return;
+	}
+if( MKeySampler.isEnabled( confMap ) )
+	{
+	( new MKeySampler( confMap ) ).configure( conf );
+	}
 JobClient.runJob( conf );
+
+	//hot keys were split by time range across the reducers
+MSegmentMerger.merge( conf, FileOutputFormat.getOutputPath( conf ) );
+
+if( stateStore != null )
+	{
+	stateStore.commit( FileOutputFormat.getOutputPath( conf ), inputPaths, conf );
+	}
+if( timeIndex != null )
+	{
+	timeIndex.update( FileOutputFormat.getOutputPath( conf ), inputPaths, conf );
+	}
 }
 //--------------------------------------------------------------------------------
-private static void processInputPath( JobConf conf, String inputStr )
+private static Path[] processInputPath( JobConf conf, String inputStr, MStateStore stateStore, MTimeWindow window, MTimeIndex timeIndex )
 throws Exception
 {
 URI inputUri = new URI( inputStr );
 FileSystem fs = FileSystem.get( inputUri, conf );
-Path[] inputPaths = Util.getRecursivePaths( fs, inputUri.getPath() );
+Path[] inputPaths = ( new MInputLister( fs, confMap ) ).list( inputUri.getPath() );
+if( stateStore != null )
+	{
+		//only the part of a file that grew since the previous run is read
+	final Map<String, long[]> ranges = new HashMap<String, long[]>();
+	inputPaths = stateStore.getNewPaths( inputPaths, ranges, conf );
+	MOffsetInputFormat.setRanges( conf, ranges );
+	conf.setInputFormat( MOffsetInputFormat.class );
+	}
+if( window != null )
+	{
+	LOG.info( "time window : " + window );
+	window.set( conf );
+	if( timeIndex != null )
+		{
+		inputPaths = timeIndex.prune( inputPaths, window, conf );
+		}
+	}
+if( timeIndex != null )
+	{
+	conf.setBoolean( MTimeIndex.JOB_PROPERTY, true );
+	}
 LOG.info( Arrays.asList( inputPaths ) );
-FileInputFormat.setInputPaths( conf, inputPaths );
+if( inputPaths.length > 0 )
+	{
+	FileInputFormat.setInputPaths( conf, inputPaths );
+	}
+return inputPaths;
+}
+//--------------------------------------------------------------------------------
+/*
+ * Compiles the eval expressions MExpression cannot handle into one class, once per job,
+ * and ships it on the task classpath. See MMap.configure()
+ */
+private static void precompileEvals( JobConf conf )
+throws Exception
+{
+final List<String> evalList = new ArrayList<String>();
+final List fieldConfList = ( List )confMap.get( "fields" );
+if( fieldConfList != null )
+	{
+	for( int i = 0; i < fieldConfList.size(); ++i )
+		{
+		final String eval = ( String )( ( Map )fieldConfList.get( i ) ).get( "eval" );
+		if( eval != null
+		 && MExpression.compile( eval ) == null
+		 && !evalList.contains( eval )
+		  )
+			{
+			evalList.add( eval );
+			}
+		}
+	}
+if( evalList.size() == 0 )
+	{
+	return;
+	}
+if( !MCompiler.available() )
+	{
+	LOG.warn( "tools.jar not found. eval expressions will be compiled by each task." );
+	return;
+	}
+
+final String className = "dunkheadEval" + System.currentTimeMillis();
+final File dir = File.createTempFile( "dunkhead", "" );
+dir.delete();
+dir.mkdirs();
+final String classpath = new File( MEvalDoubleBase.class.getProtectionDomain().getCodeSource().getLocation().toURI() ).getAbsolutePath();
+try
+	{
+	MRegEx.compileEvalClass( className, evalList, dir, classpath );
+	}
+catch( MCompilationException e )
+	{
+	LOG.warn( "Failed to precompile " + evalList + ". eval expressions will be compiled by each task." );
+	return;
+	}
+
+final File jarFile = new File( dir, className + ".jar" );
+final JarOutputStream out = new JarOutputStream( new FileOutputStream( jarFile ) );
+out.putNextEntry( new JarEntry( className + ".class" ) );
+final InputStream in = new FileInputStream( new File( dir, className + ".class" ) );
+IOUtils.copy( in, out );
+in.close();
+out.close();
+
+final FileSystem fs = FileSystem.get( conf );
+final Path jarPath = new Path( fs.getHomeDirectory(), ".dunkhead/" + jarFile.getName() );
+fs.copyFromLocalFile( true, new Path( jarFile.getAbsolutePath() ), jarPath );
+( new File( dir, className + ".java" ) ).delete();
+( new File( dir, className + ".class" ) ).delete();
+dir.delete();
+fs.deleteOnExit( jarPath );
+DistributedCache.addFileToClassPath( new Path( jarPath.toUri().getPath() ), conf );
+
+conf.set( "dunkhead.eval.class", className );
+conf.set( "dunkhead.eval.list", JSON.encode( evalList ) );
+LOG.info( evalList.size() + " eval expressions precompiled to " + jarPath );
 }
 //--------------------------------------------------------------------------------
 private static void parseConf( JobConf conf, String confPathStr  )
@@ -0,0 +1,109 @@
+package net.jumperz.app.dunkhead;
+
+import java.io.*;
+
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * A LongLongDoubleWritable with a variable-length encoding.
+ *
+ * One flag byte, then the time as a vlong ( in seconds when it is a whole second, which
+ * every step-aligned time point is ), then the count unless it is 1, then the value
+ * unless it equals the count ( pure counters ). Integral values are written as a vlong.
+ * A count record from the mapper takes 6 bytes instead of 24.
+ */
+public class VLongLongDoubleWritable extends LongLongDoubleWritable {
+  private static final int TIME_IN_SECONDS = 0x01;
+  private static final int COUNT_IS_ONE = 0x02;
+  private static final int VALUE_IS_COUNT = 0x04;
+  private static final int VALUE_IS_LONG = 0x08;
+
+  public VLongLongDoubleWritable() {}
+
+  public VLongLongDoubleWritable( long time, long count, double d ) { super( time, count, d ); }
+
+  public void readFields(DataInput in) throws IOException {
+    int flags = in.readByte();
+    long time = WritableUtils.readVLong(in);
+    if ((flags & TIME_IN_SECONDS) != 0) {
+      time *= 1000L;
+    }
+    long count = 1;
+    if ((flags & COUNT_IS_ONE) == 0) {
+      count = WritableUtils.readVLong(in);
+    }
+    double value = count;
+    if ((flags & VALUE_IS_COUNT) == 0) {
+      if ((flags & VALUE_IS_LONG) != 0) {
+        value = WritableUtils.readVLong(in);
+      } else {
+        value = in.readDouble();
+      }
+    }
+    set(time, count, value);
+  }
+
+  public void write(DataOutput out) throws IOException {
+    long time = getTime();
+    long count = getCount();
+    double value = getValue();
+    int flags = 0;
+    if (time % 1000L == 0) {
+      flags |= TIME_IN_SECONDS;
+      time /= 1000L;
+    }
+    if (count == 1) {
+      flags |= COUNT_IS_ONE;
+    }
+    if (value == count) {
+      flags |= VALUE_IS_COUNT;
+    } else if (value == (long)value) {
+      flags |= VALUE_IS_LONG;
+    }
+
+    out.writeByte(flags);
+    WritableUtils.writeVLong(out, time);
+    if ((flags & COUNT_IS_ONE) == 0) {
+      WritableUtils.writeVLong(out, count);
+    }
+    if ((flags & VALUE_IS_COUNT) == 0) {
+      if ((flags & VALUE_IS_LONG) != 0) {
+        WritableUtils.writeVLong(out, (long)value);
+      } else {
+        out.writeDouble(value);
+      }
+    }
+  }
+
+  /** Reads the time of a serialized VLongLongDoubleWritable. */
+  static long readTime(byte[] b, int s) throws IOException {
+    long time = WritableComparator.readVLong(b, s + 1);
+    if ((b[s] & TIME_IN_SECONDS) != 0) {
+      time *= 1000L;
+    }
+    return time;
+  }
+
+  /** A Comparator optimized for VLongLongDoubleWritable, ordering by time like LongLongDoubleWritable.Comparator. */
+  public static class Comparator extends WritableComparator {
+    public Comparator() {
+      super(VLongLongDoubleWritable.class);
+    }
+
+    public int compare(byte[] b1, int s1, int l1,
+                       byte[] b2, int s2, int l2) {
+      try {
+        long thisValue = readTime(b1, s1);
+        long thatValue = readTime(b2, s2);
+        return (thisValue<thatValue ? -1 : (thisValue==thatValue ? 0 : 1));
+      } catch (IOException e) {
+        throw new IllegalArgumentException(e);
+      }
+    }
+  }
+
+  static {                                        // register this comparator
+    WritableComparator.define(VLongLongDoubleWritable.class, new Comparator());
+  }
+}
@@ -96,4 +96,17 @@ public class RrdMemoryBackendFactory extends RrdBackendFactory {
 	public String getFactoryName() {
 		return NAME;
 	}
+
+	/**
+	 * Creates the storage with the given ID from the bytes of an existing RRD.
+	 * @param id Storage ID
+	 * @param bytes RRD bytes, as returned by {@link RrdDb#getBytes()}
+	 * @throws IOException Thrown in case of I/O error.
+	 */
+	public synchronized void load(String id, byte[] bytes) throws IOException {
+		RrdMemoryBackend backend = new RrdMemoryBackend(id);
+		backend.setLength(bytes.length);
+		backend.write(0, bytes);
+		backends.put(id, backend);
+	}
 }
@@ -0,0 +1,77 @@
+package net.jumperz.util;
+
+/*
+ * A CharSequence view over a byte array holding ASCII text, so that regexes can run
+ * on the raw bytes of a line without decoding them into a String.
+ * The view is reused through set() and must not be retained by callers.
+ */
+public class MAsciiCharSequence
+implements CharSequence
+{
+private byte[] bytes;
+private int offset;
+private int length;
+//--------------------------------------------------------------------------------
+public MAsciiCharSequence()
+{
+bytes = new byte[ 0 ];
+}
+//--------------------------------------------------------------------------------
+/*
+ * Returns false ( and leaves the view unchanged ) if the bytes are not pure ASCII
+ */
+public boolean set( byte[] bytes, int offset, int length )
+{
+final int end = offset + length;
+for( int i = offset; i < end; ++i )
+	{
+	if( bytes[ i ] < 0 )
+		{
+		return false;
+		}
+	}
+this.bytes = bytes;
+this.offset = offset;
+this.length = length;
+return true;
+}
+//--------------------------------------------------------------------------------
+public char charAt( int index )
+{
+if( index < 0 || index >= length )
+	{
+	throw new IndexOutOfBoundsException( "index: " + index + ", length: " + length );
+	}
+return ( char )bytes[ offset + index ];
+}
+//--------------------------------------------------------------------------------
+public int length()
+{
+return length;
+}
+//--------------------------------------------------------------------------------
+public CharSequence subSequence( int start, int end )
+{
+return toString( start, end );
+}
+//--------------------------------------------------------------------------------
+public String toString( int start, int end )
+{
+if( start < 0 || end > length || start > end )
+	{
+	throw new IndexOutOfBoundsException( "start: " + start + ", end: " + end + ", length: " + length );
+	}
+final char[] chars = new char[ end - start ];
+for( int i = 0; i < chars.length; ++i )
+	{
+	chars[ i ] = ( char )bytes[ offset + start + i ];
+	}
+return new String( chars );
+}
+//--------------------------------------------------------------------------------
+public String toString()
+{
+return toString( 0, length );
+}
+//--------------------------------------------------------------------------------
+}
@@ -0,0 +1,78 @@
+package net.jumperz.util;
+
+/*
+ * Double.parseDouble() for a region of a CharSequence.
+ * Plain decimals such as "123" or "-0.25" are converted without creating a String;
+ * anything else is handed to Double.parseDouble().
+ */
+public class MDoubleParser
+{
+private static final double[] POW10 = new double[ 23 ];
+private static final int MAX_DIGITS = 15;
+
+static
+{
+double d = 1;
+for( int i = 0; i < POW10.length; ++i )
+	{
+	POW10[ i ] = d;
+	d *= 10;
+	}
+}
+//--------------------------------------------------------------------------------
+public static double parse( CharSequence s, int start, int end )
+{
+if( start < 0 )
+	{
+	throw new NumberFormatException( "null" );
+	}
+
+int i = start;
+boolean negative = false;
+if( i < end && ( s.charAt( i ) == '-' || s.charAt( i ) == '+' ) )
+	{
+	negative = ( s.charAt( i ) == '-' );
+	++i;
+	}
+
+long mantissa = 0;
+int digits = 0;
+int fractionDigits = 0;
+boolean point = false;
+for( ; i < end; ++i )
+	{
+	final char c = s.charAt( i );
+	if( c >= '0' && c <= '9' )
+		{
+		mantissa = mantissa * 10 + ( c - '0' );
+		++digits;
+		if( point )
+			{
+			++fractionDigits;
+			}
+		}
+	else if( c == '.' && !point )
+		{
+		point = true;
+		}
+	else
+		{
+		break;
+		}
+	}
+
+if( i != end
+ || digits == 0
+ || digits > MAX_DIGITS
+ || fractionDigits >= POW10.length
+  )
+	{
+	return Double.parseDouble( s.subSequence( start, end ).toString() );
+	}
+
+	//both operands are exact, so the division is correctly rounded
+final double value = mantissa / POW10[ fractionDigits ];
+return negative ? -value : value;
+}
+//--------------------------------------------------------------------------------
+}
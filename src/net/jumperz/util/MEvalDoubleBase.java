@@ -5,4 +5,13 @@ import java.util.regex.*;
 public abstract class MEvalDoubleBase
 {
 public abstract double eval( Matcher matcher ) throws Exception;
+
+/*
+ * input is the CharSequence the matcher was reset with.
+ * Evaluators that can read the captures from it without creating Strings override this
+ */
+public double eval( CharSequence input, Matcher matcher ) throws Exception
+{
+return eval( matcher );
+}
 }
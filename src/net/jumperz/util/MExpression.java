@@ -0,0 +1,392 @@
+package net.jumperz.util;
+
+import java.util.regex.*;
+
+/*
+ * In-process evaluator for "eval" expressions such as "$1 * 100 + $2".
+ *
+ * Supports numeric literals, $N ( Double.parseDouble( matcher.group( N ) ) ), parentheses,
+ * unary + -, and binary + - * / %. The result is the same as the javac generated evaluator
+ * of MRegEx.getEvalDoubletClass(), including int arithmetic between int literals.
+ * compile() returns null for anything else so that the caller can fall back to javac.
+ *
+ * A compiled expression holds no state and may be shared between threads.
+ */
+public class MExpression
+extends MEvalDoubleBase
+{
+private final Node root;
+private final String expression;
+//--------------------------------------------------------------------------------
+private static abstract class Node
+{
+abstract double eval( CharSequence input, Matcher matcher );
+
+	//true if the Java type of the node is int
+boolean isInt()
+{
+return false;
+}
+
+int evalInt( CharSequence input, Matcher matcher )
+{
+throw new IllegalStateException();
+}
+}
+//--------------------------------------------------------------------------------
+private static class IntLiteral
+extends Node
+{
+private final int value;
+
+IntLiteral( int value )
+{
+this.value = value;
+}
+
+double eval( CharSequence input, Matcher matcher )
+{
+return value;
+}
+
+boolean isInt()
+{
+return true;
+}
+
+int evalInt( CharSequence input, Matcher matcher )
+{
+return value;
+}
+}
+//--------------------------------------------------------------------------------
+private static class DoubleLiteral
+extends Node
+{
+private final double value;
+
+DoubleLiteral( double value )
+{
+this.value = value;
+}
+
+double eval( CharSequence input, Matcher matcher )
+{
+return value;
+}
+}
+//--------------------------------------------------------------------------------
+private static class Group
+extends Node
+{
+private final int group;
+
+Group( int group )
+{
+this.group = group;
+}
+
+double eval( CharSequence input, Matcher matcher )
+{
+if( input == null )
+	{
+	return Double.parseDouble( matcher.group( group ) );
+	}
+return MDoubleParser.parse( input, matcher.start( group ), matcher.end( group ) );
+}
+}
+//--------------------------------------------------------------------------------
+private static class Negate
+extends Node
+{
+private final Node operand;
+
+Negate( Node operand )
+{
+this.operand = operand;
+}
+
+double eval( CharSequence input, Matcher matcher )
+{
+return -operand.eval( input, matcher );
+}
+
+boolean isInt()
+{
+return operand.isInt();
+}
+
+int evalInt( CharSequence input, Matcher matcher )
+{
+return -operand.evalInt( input, matcher );
+}
+}
+//--------------------------------------------------------------------------------
+private static class Binary
+extends Node
+{
+private final char operator;
+private final Node left;
+private final Node right;
+private final boolean intOperation;
+
+Binary( char operator, Node left, Node right )
+{
+this.operator = operator;
+this.left = left;
+this.right = right;
+intOperation = left.isInt() && right.isInt();
+}
+
+double eval( CharSequence input, Matcher matcher )
+{
+if( intOperation )
+	{
+	return evalInt( input, matcher );
+	}
+final double l = left.eval( input, matcher );
+final double r = right.eval( input, matcher );
+switch( operator )
+	{
+	case '+': return l + r;
+	case '-': return l - r;
+	case '*': return l * r;
+	case '/': return l / r;
+	default : return l % r;
+	}
+}
+
+boolean isInt()
+{
+return intOperation;
+}
+
+int evalInt( CharSequence input, Matcher matcher )
+{
+final int l = left.evalInt( input, matcher );
+final int r = right.evalInt( input, matcher );
+switch( operator )
+	{
+	case '+': return l + r;
+	case '-': return l - r;
+	case '*': return l * r;
+	case '/': return l / r;
+	default : return l % r;
+	}
+}
+}
+//--------------------------------------------------------------------------------
+private static class Parser
+{
+private final String s;
+private int pos;
+
+Parser( String s )
+{
+this.s = s;
+}
+
+private void skipSpaces()
+{
+while( pos < s.length() && Character.isWhitespace( s.charAt( pos ) ) )
+	{
+	++pos;
+	}
+}
+
+private char peek()
+{
+skipSpaces();
+return ( pos < s.length() ) ? s.charAt( pos ) : 0;
+}
+
+	//"++" and "--" are increment / decrement operators for javac
+private char nextOperator()
+{
+final char c = s.charAt( pos++ );
+if( pos < s.length() && s.charAt( pos ) == c && ( c == '+' || c == '-' ) )
+	{
+	throw new IllegalArgumentException( s );
+	}
+return c;
+}
+
+Node parse()
+{
+final Node node = parseExpression();
+if( peek() != 0 )
+	{
+	throw new IllegalArgumentException( s );
+	}
+return node;
+}
+
+private Node parseExpression()
+{
+Node node = parseTerm();
+while( peek() == '+' || peek() == '-' )
+	{
+	final char operator = nextOperator();
+	node = new Binary( operator, node, parseTerm() );
+	}
+return node;
+}
+
+private Node parseTerm()
+{
+Node node = parseUnary();
+while( peek() == '*' || peek() == '/' || peek() == '%' )
+	{
+	final char operator = nextOperator();
+	node = new Binary( operator, node, parseUnary() );
+	}
+return node;
+}
+
+private Node parseUnary()
+{
+final char c = peek();
+if( c == '-' )
+	{
+	nextOperator();
+	return new Negate( parseUnary() );
+	}
+if( c == '+' )
+	{
+	nextOperator();
+	return parseUnary();
+	}
+return parsePrimary();
+}
+
+private Node parsePrimary()
+{
+final char c = peek();
+if( c == '(' )
+	{
+	++pos;
+	final Node node = parseExpression();
+	if( peek() != ')' )
+		{
+		throw new IllegalArgumentException( s );
+		}
+	++pos;
+	return node;
+	}
+if( c == '$' )
+	{
+	++pos;
+	final int start = pos;
+	while( pos < s.length() && Character.isDigit( s.charAt( pos ) ) )
+		{
+		++pos;
+		}
+	if( pos == start )
+		{
+		throw new IllegalArgumentException( s );
+		}
+	return new Group( Integer.parseInt( s.substring( start, pos ) ) );
+	}
+if( ( c >= '0' && c <= '9' ) || c == '.' )
+	{
+	return parseNumber();
+	}
+throw new IllegalArgumentException( s );
+}
+
+private Node parseNumber()
+{
+final int start = pos;
+boolean isDouble = false;
+while( pos < s.length() && Character.isDigit( s.charAt( pos ) ) )
+	{
+	++pos;
+	}
+if( pos < s.length() && s.charAt( pos ) == '.' )
+	{
+	isDouble = true;
+	++pos;
+	while( pos < s.length() && Character.isDigit( s.charAt( pos ) ) )
+		{
+		++pos;
+		}
+	}
+if( pos < s.length() && ( s.charAt( pos ) == 'e' || s.charAt( pos ) == 'E' ) )
+	{
+	isDouble = true;
+	++pos;
+	if( pos < s.length() && ( s.charAt( pos ) == '+' || s.charAt( pos ) == '-' ) )
+		{
+		++pos;
+		}
+	}
+while( pos < s.length() && Character.isDigit( s.charAt( pos ) ) )
+	{
+	++pos;
+	}
+if( pos < s.length() && Character.isLetterOrDigit( s.charAt( pos ) ) )
+	{
+		//suffixes such as 1L or 2d
+	throw new IllegalArgumentException( s );
+	}
+
+final String literal = s.substring( start, pos );
+if( isDouble )
+	{
+	return new DoubleLiteral( Double.parseDouble( literal ) );
+	}
+if( literal.length() > 1 && literal.charAt( 0 ) == '0' )
+	{
+		//octal for javac
+	throw new IllegalArgumentException( s );
+	}
+return new IntLiteral( Integer.parseInt( literal ) );
+}
+}
+//--------------------------------------------------------------------------------
+private MExpression( String expression, Node root )
+{
+this.expression = expression;
+this.root = root;
+}
+//--------------------------------------------------------------------------------
+/*
+ * Returns null if the expression is not supported
+ */
+public static MExpression compile( String expression )
+{
+try
+	{
+	return new MExpression( expression, ( new Parser( expression ) ).parse() );
+	}
+catch( RuntimeException e )
+	{
+	return null;
+	}
+}
+//--------------------------------------------------------------------------------
+/*
+ * Throws an exception when a group is missing or not a number,
+ * where the javac generated evaluator returns a null result
+ */
+public double eval( Matcher matcher )
+throws Exception
+{
+return root.eval( null, matcher );
+}
+//--------------------------------------------------------------------------------
+/*
+ * Reads the captures from input without creating Strings
+ */
+public double eval( CharSequence input, Matcher matcher )
+throws Exception
+{
+return root.eval( input, matcher );
+}
+//--------------------------------------------------------------------------------
+public String toString()
+{
+return expression;
+}
+//--------------------------------------------------------------------------------
+}
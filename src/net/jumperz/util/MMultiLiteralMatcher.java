@@ -0,0 +1,175 @@
+package net.jumperz.util;
+
+import java.util.*;
+
+/*
+ * Aho-Corasick automaton over a set of ASCII literals, compared case-insensitively.
+ * One scan reports every occurrence of every literal in the input, in order of the end offset.
+ * Non-ASCII characters in the input never match and simply reset the automaton.
+ * The automaton is immutable once built and may be shared between threads.
+ */
+public class MMultiLiteralMatcher
+{
+private static final int ALPHABET = 128;
+
+private final int[][] next;
+private final int[][] outputs;
+private final int[] lengths;
+//--------------------------------------------------------------------------------
+public interface Handler
+{
+/*
+ * Called for each occurrence of literals[ id ] beginning at start.
+ * Returning false stops the scan.
+ */
+public boolean found( int id, int start );
+}
+//--------------------------------------------------------------------------------
+public static boolean isSupported( String literal )
+{
+if( literal == null || literal.length() == 0 )
+	{
+	return false;
+	}
+for( int i = 0; i < literal.length(); ++i )
+	{
+	if( literal.charAt( i ) >= ALPHABET )
+		{
+		return false;
+		}
+	}
+return true;
+}
+//--------------------------------------------------------------------------------
+private static int fold( int c )
+{
+if( c >= 'A' && c <= 'Z' )
+	{
+	return c + ( 'a' - 'A' );
+	}
+return c;
+}
+//--------------------------------------------------------------------------------
+public MMultiLiteralMatcher( String[] literals )
+{
+lengths = new int[ literals.length ];
+
+	//trie
+final List<int[]> gotoList = new ArrayList<int[]>();
+final List<List<Integer>> outputList = new ArrayList<List<Integer>>();
+gotoList.add( newRow() );
+outputList.add( new ArrayList<Integer>() );
+for( int id = 0; id < literals.length; ++id )
+	{
+	final String literal = literals[ id ];
+	if( !isSupported( literal ) )
+		{
+		throw new IllegalArgumentException( "Unsupported literal : " + literal );
+		}
+	lengths[ id ] = literal.length();
+	int state = 0;
+	for( int i = 0; i < literal.length(); ++i )
+		{
+		final int c = fold( literal.charAt( i ) );
+		int to = ( ( int[] )gotoList.get( state ) )[ c ];
+		if( to == -1 )
+			{
+			to = gotoList.size();
+			( ( int[] )gotoList.get( state ) )[ c ] = to;
+			gotoList.add( newRow() );
+			outputList.add( new ArrayList<Integer>() );
+			}
+		state = to;
+		}
+	outputList.get( state ).add( new Integer( id ) );
+	}
+
+	//failure links in breadth first order, turning the trie into a DFA
+final int stateCount = gotoList.size();
+next = ( int[][] )gotoList.toArray( new int[ stateCount ][] );
+final int[] fail = new int[ stateCount ];
+final LinkedList<Integer> queue = new LinkedList<Integer>();
+for( int c = 0; c < ALPHABET; ++c )
+	{
+	final int to = next[ 0 ][ c ];
+	if( to == -1 )
+		{
+		next[ 0 ][ c ] = 0;
+		}
+	else
+		{
+		fail[ to ] = 0;
+		queue.add( new Integer( to ) );
+		}
+	}
+while( !queue.isEmpty() )
+	{
+	final int state = ( ( Integer )queue.removeFirst() ).intValue();
+	outputList.get( state ).addAll( outputList.get( fail[ state ] ) );
+	for( int c = 0; c < ALPHABET; ++c )
+		{
+		final int to = next[ state ][ c ];
+		if( to == -1 )
+			{
+			next[ state ][ c ] = next[ fail[ state ] ][ c ];
+			}
+		else
+			{
+			fail[ to ] = next[ fail[ state ] ][ c ];
+			queue.add( new Integer( to ) );
+			}
+		}
+	}
+
+outputs = new int[ stateCount ][];
+for( int state = 0; state < stateCount; ++state )
+	{
+	final List<Integer> list = outputList.get( state );
+	if( list.isEmpty() )
+		{
+		continue;
+		}
+	outputs[ state ] = new int[ list.size() ];
+	for( int i = 0; i < list.size(); ++i )
+		{
+		outputs[ state ][ i ] = ( ( Integer )list.get( i ) ).intValue();
+		}
+	}
+}
+//--------------------------------------------------------------------------------
+private static int[] newRow()
+{
+final int[] row = new int[ ALPHABET ];
+Arrays.fill( row, -1 );
+return row;
+}
+//--------------------------------------------------------------------------------
+public void scan( CharSequence input, Handler handler )
+{
+final int len = input.length();
+int state = 0;
+for( int i = 0; i < len; ++i )
+	{
+	final int c = input.charAt( i );
+	if( c >= ALPHABET )
+		{
+		state = 0;
+		continue;
+		}
+	state = next[ state ][ fold( c ) ];
+	final int[] ids = outputs[ state ];
+	if( ids != null )
+		{
+		for( int k = 0; k < ids.length; ++k )
+			{
+			final int id = ids[ k ];
+			if( !handler.found( id, i - lengths[ id ] + 1 ) )
+				{
+				return;
+				}
+			}
+		}
+	}
+}
+//--------------------------------------------------------------------------------
+}
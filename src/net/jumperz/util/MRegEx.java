@@ -3,6 +3,7 @@ package net.jumperz.util;
 import java.io.*;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.lang.reflect.Constructor;
 import java.util.regex.*;
 import java.util.*;
 
@@ -14,13 +15,14 @@ public static final String WORD_TAIL = "(?:$|[^a-zA-Z]{1})";
 public static final String WORD_BETWEEN = "(?:\\W+?.*\\W+?|\\W+?)";
 
 private static final Map evalDoubleCache = new HashMap();
+private static final Map precompiledEvaluators = new HashMap();
 private static final String magic = "::<991929>::";
 
 //--------------------------------------------------------------------------------
 public static double evalDouble( String patternStr, String eval, String input )
 {
-Class clazz = getEvalDoubletClass( patternStr, eval );
-if( clazz == null )
+MEvalDoubleBase evaluator = getEvaluator( patternStr, eval );
+if( evaluator == null )
 	{
 		//error
 	return 0;
@@ -28,20 +30,10 @@ if( clazz == null )
 
 try
 	{
-	Object evaluator = clazz.newInstance();
-	Pattern pattern = Pattern.compile( patternStr );
-	Matcher matcher = pattern.matcher( input );
-	matcher.find();
-	evaluator.equals( matcher );
-	return Double.parseDouble( evaluator.toString() );
-	
-	/*
-	MEvalDoubleBase edb = ( MEvalDoubleBase )( clazz.newInstance() );
 	Pattern pattern = Pattern.compile( patternStr );
 	Matcher matcher = pattern.matcher( input );
 	matcher.find();
-	return edb.eval( matcher );
-	*/
+	return evaluator.eval( matcher );
 	}
 catch( Exception e )
 	{
@@ -50,6 +42,104 @@ catch( Exception e )
 	}
 }
 //--------------------------------------------------------------------------------
+/*
+ * Arithmetic expressions are evaluated in-process by MExpression.
+ * Anything else is compiled with javac by getEvalDoubletClass().
+ */
+public static MEvalDoubleBase getEvaluator( String patternStr, String eval )
+{
+final MExpression expression = MExpression.compile( eval );
+if( expression != null )
+	{
+	return expression;
+	}
+
+synchronized( precompiledEvaluators )
+	{
+	final MEvalDoubleBase evaluator = ( MEvalDoubleBase )precompiledEvaluators.get( eval );
+	if( evaluator != null )
+		{
+		return evaluator;
+		}
+	}
+
+final Class clazz = getEvalDoubletClass( patternStr, eval );
+if( clazz == null )
+	{
+	return null;
+	}
+return new MEvalDoubleBase()
+	{
+	public double eval( Matcher matcher )
+	throws Exception
+	{
+	final Object evaluator = clazz.newInstance();
+	evaluator.equals( matcher );
+	return Double.parseDouble( evaluator.toString() );
+	}
+	};
+}
+//--------------------------------------------------------------------------------
+/*
+ * Source of one class evaluating all of evalList, see compileEvalClass()
+ */
+public static String getEvalClassSource( String className, List evalList )
+{
+StringBuffer buf = new StringBuffer( 1024 );
+buf.append( "import java.util.regex.*;\n" );
+buf.append( "public class " + className + " extends net.jumperz.util.MEvalDoubleBase {\n" );
+buf.append( "private final int index;\n" );
+buf.append( "public " + className + "( int index ) { this.index = index; }\n" );
+buf.append( "public double eval( Matcher matcher ) throws Exception {\n" );
+buf.append( "switch( index ) {\n" );
+for( int i = 0; i < evalList.size(); ++i )
+	{
+	final String eval = ( String )evalList.get( i );
+	buf.append( "case " + i + ": return (" );
+	buf.append( eval.replaceAll( "\\$([0-9]+)", "Double.parseDouble( matcher.group($1) )" ) );
+	buf.append( ");\n" );
+	}
+buf.append( "}\n" );
+buf.append( "throw new IllegalArgumentException( \"index: \" + index );\n" );
+buf.append( "}\n}" );
+return buf.toString();
+}
+//--------------------------------------------------------------------------------
+/*
+ * Compiles all of evalList into dir/className.class in a single javac invocation
+ */
+public static void compileEvalClass( String className, List evalList, File dir, String classpath )
+throws IOException, MCompilationException
+{
+final File javaFile = new File( dir, className + ".java" );
+OutputStream out = new FileOutputStream( javaFile );
+out.write( getEvalClassSource( className, evalList ).getBytes( "US-ASCII" ) );
+out.close();
+
+MCompiler compiler = new MCompiler();
+int result = compiler.compile( new String[]{ "-cp", classpath, "-d", dir.getAbsolutePath(), javaFile.getAbsolutePath() } );
+if( result != 0 )
+	{
+	throw new MCompilationException( "compile error" );
+	}
+}
+//--------------------------------------------------------------------------------
+/*
+ * Makes the evaluators of a class built by compileEvalClass() available to getEvaluator()
+ */
+public static void registerEvalClass( Class clazz, List evalList )
+throws Exception
+{
+final Constructor constructor = clazz.getConstructor( new Class[]{ int.class } );
+synchronized( precompiledEvaluators )
+	{
+	for( int i = 0; i < evalList.size(); ++i )
+		{
+		precompiledEvaluators.put( evalList.get( i ), constructor.newInstance( new Object[]{ new Integer( i ) } ) );
+		}
+	}
+}
+//--------------------------------------------------------------------------------
 public static Class getEvalDoubletClass( String patternStr, String eval )
 {
 final String key = patternStr + magic + eval;
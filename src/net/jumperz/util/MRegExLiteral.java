@@ -0,0 +1,579 @@
+package net.jumperz.util;
+
+import java.util.*;
+
+/*
+ * Extracts literal strings that any match of a java.util.regex pattern must contain.
+ * The analysis is conservative : when a construct is not understood, no literal is returned.
+ */
+public class MRegExLiteral
+{
+private static final int LITERAL	= 0;
+private static final int GROUP		= 1;
+private static final int OTHER		= 2;
+private static final int UNBOUNDED	= Integer.MAX_VALUE;
+
+private final String regex;
+private int pos;
+//--------------------------------------------------------------------------------
+private static class Atom
+{
+int kind;
+char c;
+Sequence children;
+int min = 1;
+int max = 1;
+}
+//--------------------------------------------------------------------------------
+private static class Sequence
+{
+final List<Atom> atoms = new ArrayList<Atom>();
+boolean alternation;
+}
+//--------------------------------------------------------------------------------
+private static class UnsupportedRegexException
+extends Exception
+{
+}
+//--------------------------------------------------------------------------------
+private MRegExLiteral( String regex )
+{
+this.regex = regex;
+}
+//--------------------------------------------------------------------------------
+/*
+ * Returns the literal every match starts with, or "" if there is none
+ */
+public static String getLeadingLiteral( String regex )
+{
+try
+	{
+	final Sequence sequence = ( new MRegExLiteral( regex ) ).parse();
+	final StringBuilder buf = new StringBuilder();
+	appendLeadingLiteral( sequence, buf );
+	return buf.toString();
+	}
+catch( UnsupportedRegexException e )
+	{
+	return "";
+	}
+}
+//--------------------------------------------------------------------------------
+/*
+ * Returns the longest literal every match contains, or "" if there is none
+ */
+public static String getRequiredLiteral( String regex )
+{
+try
+	{
+	final Sequence sequence = ( new MRegExLiteral( regex ) ).parse();
+	final List<String> runs = new ArrayList<String>();
+	final StringBuilder buf = new StringBuilder();
+	collectRequiredLiterals( sequence, runs, buf );
+	flush( runs, buf );
+
+	String longest = "";
+	for( int i = 0; i < runs.size(); ++i )
+		{
+		final String run = ( String )runs.get( i );
+		if( run.length() > longest.length() )
+			{
+			longest = run;
+			}
+		}
+	return longest;
+	}
+catch( UnsupportedRegexException e )
+	{
+	return "";
+	}
+}
+//--------------------------------------------------------------------------------
+private static void flush( List<String> runs, StringBuilder buf )
+{
+if( buf.length() > 0 )
+	{
+	runs.add( buf.toString() );
+	buf.setLength( 0 );
+	}
+}
+//--------------------------------------------------------------------------------
+/*
+ * buf holds the run of adjacent mandatory characters that is still open
+ */
+private static void collectRequiredLiterals( Sequence sequence, List<String> runs, StringBuilder buf )
+{
+if( sequence.alternation )
+	{
+	flush( runs, buf );
+	return;
+	}
+for( int i = 0; i < sequence.atoms.size(); ++i )
+	{
+	final Atom atom = ( Atom )sequence.atoms.get( i );
+	if( atom.min == 0 || atom.kind == OTHER )
+		{
+		flush( runs, buf );
+		}
+	else if( atom.kind == LITERAL )
+		{
+		buf.append( atom.c );
+		if( atom.max != 1 )
+			{
+			flush( runs, buf );
+			}
+		}
+	else if( atom.max == 1 )
+		{
+		collectRequiredLiterals( atom.children, runs, buf );
+		}
+	else
+		{
+		flush( runs, buf );
+		collectRequiredLiterals( atom.children, runs, buf );
+		flush( runs, buf );
+		}
+	}
+}
+//--------------------------------------------------------------------------------
+/*
+ * indexOf() for a CharSequence. With ignoreCase only ASCII letters are folded,
+ * like Pattern.CASE_INSENSITIVE without UNICODE_CASE.
+ */
+public static int indexOf( CharSequence input, String literal, boolean ignoreCase )
+{
+final int literalLength = literal.length();
+final int last = input.length() - literalLength;
+if( literalLength == 0 )
+	{
+	return 0;
+	}
+final char first = literal.charAt( 0 );
+for( int i = 0; i <= last; ++i )
+	{
+	if( !equals( input.charAt( i ), first, ignoreCase ) )
+		{
+		continue;
+		}
+	int k = 1;
+	while( k < literalLength && equals( input.charAt( i + k ), literal.charAt( k ), ignoreCase ) )
+		{
+		++k;
+		}
+	if( k == literalLength )
+		{
+		return i;
+		}
+	}
+return -1;
+}
+//--------------------------------------------------------------------------------
+private static boolean equals( char a, char b, boolean ignoreCase )
+{
+if( a == b )
+	{
+	return true;
+	}
+if( !ignoreCase )
+	{
+	return false;
+	}
+if( a >= 'A' && a <= 'Z' )
+	{
+	a += 'a' - 'A';
+	}
+if( b >= 'A' && b <= 'Z' )
+	{
+	b += 'a' - 'A';
+	}
+return a == b;
+}
+//--------------------------------------------------------------------------------
+/*
+ * Returns true if the whole sequence was consumed as a fixed literal
+ */
+private static boolean appendLeadingLiteral( Sequence sequence, StringBuilder buf )
+{
+if( sequence.alternation )
+	{
+	return false;
+	}
+for( int i = 0; i < sequence.atoms.size(); ++i )
+	{
+	final Atom atom = ( Atom )sequence.atoms.get( i );
+	if( atom.min == 0 )
+		{
+		return false;
+		}
+	if( atom.kind == LITERAL )
+		{
+		buf.append( atom.c );
+		}
+	else if( atom.kind == GROUP )
+		{
+		if( !appendLeadingLiteral( atom.children, buf ) )
+			{
+			return false;
+			}
+		}
+	else
+		{
+		return false;
+		}
+	if( atom.max != 1 )
+		{
+		return false;
+		}
+	}
+return true;
+}
+//--------------------------------------------------------------------------------
+private Sequence parse()
+throws UnsupportedRegexException
+{
+final Sequence sequence = parseSequence( false );
+if( pos != regex.length() )
+	{
+	throw new UnsupportedRegexException();
+	}
+return sequence;
+}
+//--------------------------------------------------------------------------------
+private Sequence parseSequence( boolean inGroup )
+throws UnsupportedRegexException
+{
+final Sequence sequence = new Sequence();
+final int len = regex.length();
+while( pos < len )
+	{
+	final char c = regex.charAt( pos );
+	if( c == ')' )
+		{
+		if( inGroup )
+			{
+			return sequence;
+			}
+		throw new UnsupportedRegexException();
+		}
+	if( c == '|' )
+		{
+		sequence.alternation = true;
+		++pos;
+		continue;
+		}
+	if( c == '\\' && pos + 1 < len && regex.charAt( pos + 1 ) == 'Q' )
+		{
+		parseQuote( sequence );
+		continue;
+		}
+
+	final Atom atom = parseAtom();
+	parseQuantifier( atom );
+	sequence.atoms.add( atom );
+	}
+if( inGroup )
+	{
+	throw new UnsupportedRegexException();
+	}
+return sequence;
+}
+//--------------------------------------------------------------------------------
+private void parseQuote( Sequence sequence )
+throws UnsupportedRegexException
+{
+pos += 2;
+int end = regex.indexOf( "\\E", pos );
+if( end == -1 )
+	{
+	end = regex.length();
+	}
+Atom atom = null;
+while( pos < end )
+	{
+	atom = new Atom();
+	atom.kind = LITERAL;
+	atom.c = regex.charAt( pos );
+	sequence.atoms.add( atom );
+	++pos;
+	}
+pos = Math.min( end + 2, regex.length() );
+if( atom != null )
+	{
+	parseQuantifier( atom );
+	}
+}
+//--------------------------------------------------------------------------------
+private Atom parseAtom()
+throws UnsupportedRegexException
+{
+final Atom atom = new Atom();
+final char c = regex.charAt( pos );
+switch( c )
+	{
+	case '(':
+		parseGroup( atom );
+		break;
+	case '[':
+		skipClass();
+		atom.kind = OTHER;
+		break;
+	case '\\':
+		parseEscape( atom );
+		break;
+	case '.':
+	case '^':
+	case '$':
+		++pos;
+		atom.kind = OTHER;
+		break;
+	case '?':
+	case '*':
+	case '+':
+	case '{':
+		throw new UnsupportedRegexException();
+	default:
+		++pos;
+		atom.kind = LITERAL;
+		atom.c = c;
+		break;
+	}
+return atom;
+}
+//--------------------------------------------------------------------------------
+private void parseGroup( Atom atom )
+throws UnsupportedRegexException
+{
+++pos;
+boolean zeroWidth = false;
+if( regex.startsWith( "?", pos ) )
+	{
+	if( regex.startsWith( "?:", pos ) || regex.startsWith( "?>", pos ) )
+		{
+		pos += 2;
+		}
+	else if( regex.startsWith( "?=", pos ) || regex.startsWith( "?!", pos ) )
+		{
+		pos += 2;
+		zeroWidth = true;
+		}
+	else if( regex.startsWith( "?<=", pos ) || regex.startsWith( "?<!", pos ) )
+		{
+		pos += 3;
+		zeroWidth = true;
+		}
+	else if( regex.startsWith( "?<", pos ) )
+		{
+		final int end = regex.indexOf( '>', pos );
+		if( end == -1 )
+			{
+			throw new UnsupportedRegexException();
+			}
+		pos = end + 1;
+		}
+	else
+		{
+			//inline flags such as (?x) change the meaning of the rest of the pattern
+		throw new UnsupportedRegexException();
+		}
+	}
+
+final Sequence children = parseSequence( true );
+++pos; // ')'
+if( zeroWidth )
+	{
+	atom.kind = OTHER;
+	}
+else
+	{
+	atom.kind = GROUP;
+	atom.children = children;
+	}
+}
+//--------------------------------------------------------------------------------
+private void skipClass()
+throws UnsupportedRegexException
+{
+final int len = regex.length();
+++pos;
+if( pos < len && regex.charAt( pos ) == '^' )
+	{
+	++pos;
+	}
+if( pos < len && regex.charAt( pos ) == ']' )
+	{
+	++pos;
+	}
+int depth = 1;
+while( pos < len )
+	{
+	final char c = regex.charAt( pos );
+	if( c == '\\' )
+		{
+		pos += 2;
+		continue;
+		}
+	++pos;
+	if( c == '[' )
+		{
+		++depth;
+		}
+	else if( c == ']' )
+		{
+		--depth;
+		if( depth == 0 )
+			{
+			return;
+			}
+		}
+	}
+throw new UnsupportedRegexException();
+}
+//--------------------------------------------------------------------------------
+private void parseEscape( Atom atom )
+throws UnsupportedRegexException
+{
+final int len = regex.length();
+if( pos + 1 >= len )
+	{
+	throw new UnsupportedRegexException();
+	}
+final char c = regex.charAt( pos + 1 );
+pos += 2;
+atom.kind = LITERAL;
+switch( c )
+	{
+	case 't': atom.c = '\t'; return;
+	case 'n': atom.c = '\n'; return;
+	case 'r': atom.c = '\r'; return;
+	case 'f': atom.c = '\f'; return;
+	case 'a': atom.c = '\u0007'; return;
+	case 'e': atom.c = '\u001B'; return;
+	}
+
+if( ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' ) || ( c >= '0' && c <= '9' ) )
+	{
+	atom.kind = OTHER;
+	if( c >= '0' && c <= '9' )
+		{
+			//back reference or octal
+		while( pos < len && regex.charAt( pos ) >= '0' && regex.charAt( pos ) <= '9' )
+			{
+			++pos;
+			}
+		}
+	else if( c == 'p' || c == 'P' || c == 'x' || c == 'N' )
+		{
+		if( pos < len && regex.charAt( pos ) == '{' )
+			{
+			final int end = regex.indexOf( '}', pos );
+			if( end == -1 )
+				{
+				throw new UnsupportedRegexException();
+				}
+			pos = end + 1;
+			}
+		else
+			{
+			pos += ( c == 'x' ) ? 2 : 1;
+			}
+		}
+	else if( c == 'u' )
+		{
+		pos += 4;
+		}
+	else if( c == 'c' )
+		{
+		pos += 1;
+		}
+	else if( c == 'k' )
+		{
+		final int end = regex.indexOf( '>', pos );
+		if( end == -1 )
+			{
+			throw new UnsupportedRegexException();
+			}
+		pos = end + 1;
+		}
+	if( pos > len )
+		{
+		throw new UnsupportedRegexException();
+		}
+	}
+else
+	{
+	atom.c = c;
+	}
+}
+//--------------------------------------------------------------------------------
+private void parseQuantifier( Atom atom )
+throws UnsupportedRegexException
+{
+final int len = regex.length();
+if( pos >= len )
+	{
+	return;
+	}
+final char c = regex.charAt( pos );
+if( c == '?' )
+	{
+	atom.min = 0;
+	atom.max = 1;
+	++pos;
+	}
+else if( c == '*' )
+	{
+	atom.min = 0;
+	atom.max = UNBOUNDED;
+	++pos;
+	}
+else if( c == '+' )
+	{
+	atom.max = UNBOUNDED;
+	++pos;
+	}
+else if( c == '{' )
+	{
+	final int end = regex.indexOf( '}', pos );
+	if( end == -1 )
+		{
+		throw new UnsupportedRegexException();
+		}
+	final String range = regex.substring( pos + 1, end );
+	try
+		{
+		final int comma = range.indexOf( ',' );
+		if( comma == -1 )
+			{
+			atom.min = Integer.parseInt( range.trim() );
+			atom.max = atom.min;
+			}
+		else
+			{
+			atom.min = Integer.parseInt( range.substring( 0, comma ).trim() );
+			final String maxStr = range.substring( comma + 1 ).trim();
+			atom.max = ( maxStr.length() == 0 ) ? UNBOUNDED : Integer.parseInt( maxStr );
+			}
+		}
+	catch( NumberFormatException e )
+		{
+		throw new UnsupportedRegexException();
+		}
+	pos = end + 1;
+	}
+else
+	{
+	return;
+	}
+
+	//lazy or possessive
+if( pos < len && ( regex.charAt( pos ) == '?' || regex.charAt( pos ) == '+' ) )
+	{
+	++pos;
+	}
+if( pos < len && ( regex.charAt( pos ) == '?' || regex.charAt( pos ) == '*' || regex.charAt( pos ) == '+' || regex.charAt( pos ) == '{' ) )
+	{
+	throw new UnsupportedRegexException();
+	}
+}
+//--------------------------------------------------------------------------------
+}
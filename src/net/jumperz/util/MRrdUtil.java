@@ -109,6 +109,12 @@ catch( RrdException e )
 public static RrdDb createStandardRrdFile( long startTime, String type, String rrdFileName, String dataSourceName, long step, long heartbeat )
 throws IOException
 {
+return createStandardRrdFile( startTime, type, rrdFileName, dataSourceName, step, heartbeat, RrdBackendFactory.getDefaultFactory() );
+}
+//--------------------------------------------------------------------------------
+public static RrdDb createStandardRrdFile( long startTime, String type, String rrdFileName, String dataSourceName, long step, long heartbeat, RrdBackendFactory factory )
+throws IOException
+{
 try
 	{
 	RrdDef rrdDef = new RrdDef( rrdFileName, step );
@@ -122,7 +128,7 @@ try
 	rrdDef.addArchive( "MAX", 0.5, 6, 700 );
 	rrdDef.addArchive( "MAX", 0.5, 24, 775 );
 	rrdDef.addArchive( "MAX", 0.5, 288, 797 );
-	RrdDb rrdDb = new RrdDb( rrdDef );
+	RrdDb rrdDb = new RrdDb( rrdDef, factory );
 	return rrdDb;
 	}
 catch( RrdException e )
@@ -2,22 +2,382 @@ package test;
 
 import net.jumperz.util.*;
 import java.util.regex.*;
+import java.text.*;
+import java.util.*;
 import net.jumperz.app.dunkhead.*;
 import org.apache.commons.logging.*;
+import org.apache.hadoop.io.*;
+import org.apache.hadoop.mapred.*;
+import net.arnx.jsonic.JSON;
+import java.lang.management.ManagementFactory;
+import java.io.IOException;
 
 public class MTest
 {
 private static final Log LOG = LogFactory.getLog( MTest.class );
+
+	//regexes for the literal analysis, matched against random lines
+private static final String[] REGEXES = {
+	"GET|POST", "abc|abd", "(?:abc|abd)x", "a?bc", "ab?c", "abc*d", "ab*cd", "ab{0,3}cd", "ab{2}cd",
+	"(?:ab){2}c", "\\Qa.b\\E+c", "\\Qa.b\\E*c", "x\\Qa.b\\Ey", "a\\Qb",
+	"(?i)abc", "(?i:ab)cd", "ab(?i)cd", "(?-i)abc", "(?x) a b c", "(?x)a\\ b#c\nd",
+	"(?=ab)abc", "ab(?=cd)", "ab(?!cd)", "(?<=x)abc", "(?<!x)abc", "(a)\\1b", "(ab)\\1",
+	"\\x41BC", "\\u0041BC", "\\0101BC", "a\\tb", "a.b", "a\\.b", "\\d+abc", "^abc", "^[0-9]+ abc", "abc$",
+	"\\babc\\b", "a\\Bb", "(abc)+d", "(abc)?d", "(?>ab)c", "a++bc", "ab*+c", "ab??c",
+	"HTTP/1\\.[01]\" (\\d{3})", "(?<n>ab)c",
+	};
 //--------------------------------------------------------------------------------
 public static void main( String[] args )
 throws Exception
 {
 test1();
 test2();
+test3();
+test4();
+test5();
+test6();
+test7();
 
 LOG.info( "OK" );
 }
 //--------------------------------------------------------------------------------
+private static String[] getRandomLines( int count )
+{
+final String[] tokens = { "GET", "POST", "get", "ab", "abc", "abd", "cd", "x", "AB", "A", "BC", "\t", ".", "a.b",
+	"HTTP/1.1", "\" 200 ", " ", "b", "c", "d", "1", "\u00e9", "y", "a b", "xa.b", "a\tb" };
+final Random random = new Random( 0 );
+final String[] lines = new String[ count ];
+for( int i = 0; i < count; ++i )
+	{
+	final StringBuilder buf = new StringBuilder( "1375360496 " );
+	final int length = random.nextInt( 10 );
+	for( int k = 0; k < length; ++k )
+		{
+		buf.append( tokens[ random.nextInt( tokens.length ) ] );
+		}
+	lines[ i ] = buf.toString();
+	}
+return lines;
+}
+//--------------------------------------------------------------------------------
+private static void test6()
+throws Exception
+{
+	//leading literals
+final String[][] leading = {
+	{ "GET|POST", "" }, { "(?:abc|abd)x", "" }, { "a?bc", "" }, { "ab?c", "a" }, { "abc*d", "ab" },
+	{ "ab{0,3}cd", "a" }, { "ab{2}cd", "ab" }, { "(?:ab){2}c", "ab" },
+	{ "\\Qa.b\\E+c", "a.b" }, { "\\Qa.b\\E*c", "a." }, { "x\\Qa.b\\Ey", "xa.by" }, { "a\\Qb", "ab" },
+	{ "(?i)abc", "" }, { "(?i:ab)cd", "" }, { "(?x) a b c", "" },
+	{ "(?=ab)abc", "" }, { "ab(?=cd)", "ab" }, { "(?<=x)abc", "" }, { "(a)\\1b", "a" },
+	{ "\\x41BC", "" }, { "\\u0041BC", "" }, { "\\0101BC", "" }, { "a\\tb", "a\tb" },
+	{ "a.b", "a" }, { "a\\.b", "a.b" }, { "^abc", "" }, { "(abc)?d", "" }, { "a++bc", "a" }, { "ab??c", "a" },
+	};
+for( int i = 0; i < leading.length; ++i )
+	{
+	if( !MRegExLiteral.getLeadingLiteral( leading[ i ][ 0 ] ).equals( leading[ i ][ 1 ] ) ){ ex(); }
+	}
+
+	//the single pass matcher finds the same match as Matcher.find()
+final List<Map<String, Object>> fields = new ArrayList<Map<String, Object>>();
+for( int i = 0; i < REGEXES.length; ++i )
+	{
+	final Map<String, Object> field = new HashMap<String, Object>();
+	field.put( "name", "f" + i );
+	field.put( "regex", REGEXES[ i ] );
+	field.put( "type", "count" );
+	fields.add( field );
+	}
+final Map<String, Object> datetime = new HashMap<String, Object>();
+datetime.put( "format", MConstants.DF_UNIX_SECOND );
+datetime.put( "regex", "^([0-9]+) " );
+final Map<String, Object> conf = new HashMap<String, Object>();
+conf.put( "datetime", datetime );
+conf.put( "fields", fields );
+final MExtractionPlan plan = new MExtractionPlan( conf );
+
+final String[] lines = getRandomLines( 5000 );
+final MAsciiCharSequence asciiLine = new MAsciiCharSequence();
+for( int i = 0; i < lines.length; ++i )
+	{
+	final byte[] bytes = lines[ i ].getBytes( "ISO-8859-1" );
+	final CharSequence line = asciiLine.set( bytes, 0, bytes.length ) ? ( CharSequence )asciiLine : lines[ i ];
+	if( !plan.match( line ) ){ ex(); }
+	for( int k = 0; k < REGEXES.length; ++k )
+		{
+		final Matcher expected = Pattern.compile( REGEXES[ k ], Pattern.CASE_INSENSITIVE | Pattern.DOTALL ).matcher( lines[ i ] );
+		final Matcher matcher = plan.getMatcher( k );
+		if( !expected.find() )
+			{
+			if( matcher != null ){ ex(); }
+			continue;
+			}
+		if( matcher == null ){ ex(); }
+		for( int g = 0; g <= expected.groupCount(); ++g )
+			{
+			if( matcher.start( g ) != expected.start( g ) || matcher.end( g ) != expected.end( g ) ){ ex(); }
+			}
+		}
+	}
+}
+//--------------------------------------------------------------------------------
+private static void test7()
+throws Exception
+{
+	//required literals
+final String[][] required = {
+	{ "GET|POST", "" }, { "abc|abd", "" }, { "(?:abc|abd)x", "x" }, { "a?bc", "bc" }, { "ab*cd", "cd" },
+	{ "ab{0,3}cd", "cd" }, { "(?:ab){2}c", "ab" }, { "\\Qa.b\\E*c", "a." }, { "x\\Qa.b\\Ey", "xa.by" },
+	{ "(?i)abc", "" }, { "(?i:ab)cd", "" }, { "ab(?i)cd", "" }, { "(?x) a b c", "" }, { "(?x)a\\ b#c\nd", "" },
+	{ "(?=ab)abc", "abc" }, { "ab(?!cd)", "ab" }, { "(?<!x)abc", "abc" }, { "(a)\\1b", "a" },
+	{ "\\x41BC", "BC" }, { "\\u0041BC", "BC" }, { "\\0101BC", "BC" }, { "\\d+abc", "abc" }, { "^abc", "abc" },
+	{ "\\babc\\b", "abc" }, { "(abc)?d", "d" }, { "a++bc", "bc" }, { "a{,2}b", "" },
+	};
+for( int i = 0; i < required.length; ++i )
+	{
+	if( !MRegExLiteral.getRequiredLiteral( required[ i ][ 0 ] ).equals( required[ i ][ 1 ] ) ){ ex(); }
+	}
+if( MRegExLiteral.indexOf( "xxABcd", "abc", true ) != 2 ){ ex(); }
+if( MRegExLiteral.indexOf( "xxABcd", "abc", false ) != -1 ){ ex(); }
+if( MRegExLiteral.indexOf( "\u00e9\u00c9", "\u00e9\u00e9", true ) != -1 ){ ex(); }
+
+	//mayMatch() never skips a line that the regex matches
+final String[] lines = getRandomLines( 5000 );
+int skipped = 0;
+for( int k = 0; k < REGEXES.length; ++k )
+	{
+	final MField field = new MField( "f", REGEXES[ k ], "count", null );
+	for( int i = 0; i < lines.length; ++i )
+		{
+		if( !field.mayMatch( lines[ i ] ) )
+			{
+			if( field.getPattern().matcher( lines[ i ] ).find() ){ ex(); }
+			++skipped;
+			}
+		}
+	}
+if( skipped == 0 ){ ex(); }
+}
+//--------------------------------------------------------------------------------
+private static Map<String, Object> newConf( String[][] fieldConf )
+{
+final Map<String, Object> datetime = new HashMap<String, Object>();
+datetime.put( "format", MTimestampParser.CLF_FORMAT );
+datetime.put( "regex", " \\[([0-9]{2}/[^\\]]+)\\] " );
+final List<Map<String, Object>> fields = new ArrayList<Map<String, Object>>();
+for( int i = 0; i < fieldConf.length; ++i )
+	{
+	final Map<String, Object> field = new HashMap<String, Object>();
+	field.put( "name", fieldConf[ i ][ 0 ] );
+	field.put( "regex", fieldConf[ i ][ 1 ] );
+	field.put( "type", fieldConf[ i ][ 2 ] );
+	fields.add( field );
+	}
+final Map<String, Object> conf = new HashMap<String, Object>();
+conf.put( "datetime", datetime );
+conf.put( "fields", fields );
+return conf;
+}
+//--------------------------------------------------------------------------------
+private static void test5()
+throws Exception
+{
+	//fields with the same name and type are merged into one key
+{
+final String[][] fieldConf = {
+	{ "Error", "\" (5[0-9]{2}) ", "count" },
+	{ "Error", "\" (4[0-9]{2}) ", "count" },
+	{ "Error", "\" ([45][0-9]{2}) ", "max" },
+	{ "All", "HTTP", "count" },
+	};
+final MExtractionPlan plan = new MExtractionPlan( newConf( fieldConf ) );
+if( plan.getKeyId( 0 ) != 1 ){ ex(); }
+if( plan.getKeyId( 1 ) != 1 ){ ex(); }
+if( plan.getKeyId( 2 ) != 3 ){ ex(); }
+if( plan.getKeyId( 3 ) != MKeyCodec.FIELD_ID_ALL ){ ex(); }
+
+final MKeyCodec codec = new MKeyCodec( plan );
+final BytesWritable key0 = new BytesWritable();
+final BytesWritable key1 = new BytesWritable();
+final String line = "127.0.0.1 - - [10/Oct/2000:13:55:36 -0700] \"GET / HTTP/1.0\" 503 0 ";
+if( !plan.match( line ) ){ ex(); }
+codec.encode( 0, line, plan.getMatcher( 0 ), key0 );
+codec.encodeAll( key1 );
+if( !codec.decode( key0 ).equals( "Error_count" ) ){ ex(); }
+if( !codec.decode( key1 ).equals( "All_count" ) ){ ex(); }
+}
+
+	//names that different captures may render the same are merged by name
+{
+final String[][] fieldConf = {
+	{ "$1$2", "^([a-z]+)([a-z]+) ", "count" },
+	{ "Status-$1", "^[a-z]+ ([0-9]+)", "count" },
+	{ "Status-404", " 404", "count" },
+	{ "Method-$1", "^([a-z]+)", "count" },
+	{ "Method-$1", "^([a-z]+)", "max" },
+	};
+final MExtractionPlan plan = new MExtractionPlan( newConf( fieldConf ) );
+if( plan.getNameTypeId( plan.getKeyId( 0 ) ) != MKeyCodec.FIELD_ID_ALL ){ ex(); }
+if( plan.getNameTypeId( plan.getKeyId( 2 ) ) != MKeyCodec.FIELD_ID_ALL ){ ex(); }
+if( plan.getNameTypeId( plan.getKeyId( 3 ) ) != MKeyCodec.FIELD_ID_ALL ){ ex(); } //"$1$2" may render "Method-abc"
+if( plan.getNameTypeId( plan.getKeyId( 4 ) ) != -1 ){ ex(); }
+
+final MKeyCodec codec = new MKeyCodec( plan );
+final String line = "abc 404";
+final BytesWritable key0 = new BytesWritable();
+final BytesWritable key1 = new BytesWritable();
+final Matcher matcher = Pattern.compile( "^([a-z]+)([a-z]+) " ).matcher( line );
+matcher.find();
+codec.encode( 0, line, matcher, key0 );
+final Matcher matcher2 = Pattern.compile( "^([a-z]+?)([a-z]+) " ).matcher( line );
+matcher2.find();
+codec.encode( 0, line, matcher2, key1 );
+if( !key0.equals( key1 ) ){ ex(); }
+if( !codec.decode( key0 ).equals( "abc_count" ) ){ ex(); }
+
+final Matcher matcher3 = Pattern.compile( "^[a-z]+ ([0-9]+)" ).matcher( line );
+matcher3.find();
+codec.encode( 1, line, matcher3, key0 );
+final Matcher matcher4 = Pattern.compile( " 404" ).matcher( line );
+matcher4.find();
+codec.encode( 2, line, matcher4, key1 );
+if( !key0.equals( key1 ) ){ ex(); }
+if( !codec.decode( key0 ).equals( "Status-404_count" ) ){ ex(); }
+if( codec.getType( key0 ) != MConstants.TYPE_ID_COUNT ){ ex(); }
+
+final Matcher matcher5 = Pattern.compile( "^([a-z]+)" ).matcher( line );
+matcher5.find();
+codec.encode( 4, line, matcher5, key0 );
+if( !codec.decode( key0 ).equals( "Method-$1_max" ) ){ ex(); }
+if( codec.getType( key0 ) != MConstants.TYPE_ID_MAX ){ ex(); }
+}
+
+	//"$1" may render "All"
+{
+final String[][] fieldConf = {
+	{ "$1", "^([a-z]+)", "count" },
+	};
+final MExtractionPlan plan = new MExtractionPlan( newConf( fieldConf ) );
+final MKeyCodec codec = new MKeyCodec( plan );
+final BytesWritable key0 = new BytesWritable();
+final BytesWritable key1 = new BytesWritable();
+final Matcher matcher = Pattern.compile( "^([a-z]+)", Pattern.CASE_INSENSITIVE ).matcher( "All" );
+matcher.find();
+codec.encode( 0, "All", matcher, key0 );
+codec.encodeAll( key1 );
+if( !key0.equals( key1 ) ){ ex(); }
+if( !codec.decode( key1 ).equals( "All_count" ) ){ ex(); }
+}
+}
+//--------------------------------------------------------------------------------
+private static void test4()
+throws Exception
+{
+	//MMap.map() should not allocate per record once warmed up
+final Object bean = ManagementFactory.getThreadMXBean();
+if( !( bean instanceof com.sun.management.ThreadMXBean )
+ || !( ( com.sun.management.ThreadMXBean )bean ).isThreadAllocatedMemorySupported()
+  )
+	{
+	LOG.info( "test4 skipped" );
+	return;
+	}
+final com.sun.management.ThreadMXBean threadBean = ( com.sun.management.ThreadMXBean )bean;
+final long threadId = Thread.currentThread().getId();
+
+final Map<String, Object> datetime = new HashMap<String, Object>();
+datetime.put( "format", MTimestampParser.CLF_FORMAT );
+datetime.put( "regex", " \\[([0-9]{2}/[^\\]]+)\\] " );
+final List<Map<String, Object>> fields = new ArrayList<Map<String, Object>>();
+final String[][] fieldConf = {
+	{ "Status-Code-$1", "\" ([0-9]{3}) ", "count", null },
+	{ "HTTP-Method-$1", "\\] \"([A-Z]{2,9}) ", "count", null },
+	{ "Average-Size", "\" [0-9]{3} ([0-9]+)", "average", null },
+	{ "Average-Size-Of-FileType-$1", "(\\.[a-zA-Z0-9]{2,4}) HTTP/[\\.10]{3}\" [0-9]{3} ([0-9]+) ", "average", "$2" },
+	};
+for( int i = 0; i < fieldConf.length; ++i )
+	{
+	final Map<String, Object> field = new HashMap<String, Object>();
+	field.put( "name", fieldConf[ i ][ 0 ] );
+	field.put( "regex", fieldConf[ i ][ 1 ] );
+	field.put( "type", fieldConf[ i ][ 2 ] );
+	if( fieldConf[ i ][ 3 ] != null )
+		{
+		field.put( "eval", fieldConf[ i ][ 3 ] );
+		}
+	fields.add( field );
+	}
+final Map<String, Object> conf = new HashMap<String, Object>();
+conf.put( "datetime", datetime );
+conf.put( "fields", fields );
+
+final JobConf job = new JobConf( false );
+job.set( "confJsonStr", JSON.encode( conf ) );
+final MMap map = new MMap();
+map.configure( job );
+
+final Text[] lines = {
+	new Text( "127.0.0.1 - - [10/Oct/2000:13:55:36 -0700] \"GET /apache_pb.gif HTTP/1.0\" 200 2326 " ),
+	new Text( "127.0.0.1 - - [10/Oct/2000:13:55:36 -0700] \"POST /index.php HTTP/1.1\" 404 512 " ),
+	new Text( "127.0.0.1 - - [10/Oct/2000:13:55:37 -0700] \"GET /index.html HTTP/1.1\" 304 0 " ),
+	};
+final long[] collected = new long[ 1 ];
+final OutputCollector<MTimeKey, LongLongDoubleWritable> output = new OutputCollector<MTimeKey, LongLongDoubleWritable>()
+	{
+	public void collect( MTimeKey key, LongLongDoubleWritable value )
+	{
+	++collected[ 0 ];
+	}
+	};
+final LongWritable offset = new LongWritable();
+
+for( int i = 0; i < 100000; ++i )
+	{
+	map.map( offset, lines[ i % lines.length ], output, Reporter.NULL );
+	}
+final int count = 100000;
+final long before = threadBean.getThreadAllocatedBytes( threadId );
+for( int i = 0; i < count; ++i )
+	{
+	map.map( offset, lines[ i % lines.length ], output, Reporter.NULL );
+	}
+final long allocated = threadBean.getThreadAllocatedBytes( threadId ) - before;
+map.close();
+
+LOG.info( "MMap.map() allocated " + ( allocated / count ) + " bytes per record" );
+if( allocated / count > 16 ){ ex(); }
+if( collected[ 0 ] == 0 ){ ex(); }
+}
+//--------------------------------------------------------------------------------
+private static void test3()
+throws Exception
+{
+{
+MTimestampParser parser = new MTimestampParser( MTimestampParser.CLF_FORMAT );
+DateFormat df = new SimpleDateFormat( MTimestampParser.CLF_FORMAT, Locale.ENGLISH );
+String[] dates = { "10/Oct/2000:13:55:36 -0700", "10/Oct/2000:13:55:36 -0700", "29/Feb/2012:00:00:00 +0900", "31/Dec/1999:23:59:59 +0000", "01/jan/2038:03:14:08 -1130" };
+for( int i = 0; i < dates.length; ++i )
+	{
+	if( parser.parse( dates[ i ] ) != df.parse( dates[ i ] ).getTime() ){ ex(); }
+	}
+if( parser.parse( "[" + dates[ 0 ] + "]", 1, 27 ) != df.parse( dates[ 0 ] ).getTime() ){ ex(); }
+}
+
+{
+MTimestampParser parser = new MTimestampParser( MConstants.DF_ISO8601 );
+if( parser.parse( "2013-08-01T12:34:56Z" ) != 1375360496000L ){ ex(); }
+if( parser.parse( "2013-08-01T12:34:56.789Z" ) != 1375360496789L ){ ex(); }
+if( parser.parse( "2013-08-01 21:34:56+09:00" ) != 1375360496000L ){ ex(); }
+if( parser.parse( "2013-08-01T21:34:56.1+0900" ) != 1375360496100L ){ ex(); }
+}
+
+{
+MTimestampParser parser = new MTimestampParser( MConstants.DF_UNIX_SECOND );
+if( parser.parse( "1375360496.789" ) != 1375360496789L ){ ex(); }
+if( parser.parse( "1375360496" ) != 1375360496000L ){ ex(); }
+}
+}
+//--------------------------------------------------------------------------------
 private static void test2()
 throws Exception
 {